@@ -0,0 +1,53 @@
+#!/bin/bash
+#
+# Copyright (c) 2014 RONDHUIT Co.,Ltd.
+#
+#   Licensed under the Apache License, Version 2.0 (the "License");
+#   you may not use this file except in compliance with the License.
+#   You may obtain a copy of the License at
+#
+#       http://www.apache.org/licenses/LICENSE-2.0
+#
+#   Unless required by applicable law or agreed to in writing, software
+#   distributed under the License is distributed on an "AS IS" BASIS,
+#   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+#   See the License for the specific language governing permissions and
+#   limitations under the License.
+#
+
+if [ -z $1 ]; then
+  echo "Usage: ./demo-distributed.sh <text file> -w <workers (default is 2)> -p <port (default is 7777)> -f <vectors file (default is vectors.txt)>"
+  echo "  ex) ./demo-distributed.sh text8 -w 4"
+  exit 1
+else
+  TEXT_FILE=$1
+  shift
+fi
+
+WORKERS=2
+PORT=7777
+VECTOR_FILE=vectors.txt
+while getopts w:p:f: OPT
+do
+  case $OPT in
+    "w" ) WORKERS="$OPTARG" ;;
+    "p" ) PORT="$OPTARG" ;;
+    "f" ) VECTOR_FILE="$OPTARG" ;;
+  esac
+done
+
+RHCOM_JAR=$(ls lib/RONDHUIT-COMMONS-*.jar)
+SLF4J_JAR=$(ls lib/slf4j-api-*.jar)
+SLF4J_JAR=${SLF4J_JAR}:$(ls lib/slf4j-jdk14-*.jar)
+CLASSPATH=${RHCOM_JAR}:${SLF4J_JAR}:classes
+PARAMS="-input ${TEXT_FILE} -cbow 1 -size 200 -window 8 -negative 25 -sample 0.0001 -iter 15 -min-count 5"
+
+# the coordinator builds the vocabulary and saves the averaged vectors, the workers train the shards on loopback
+java -cp ${CLASSPATH} com.rondhuit.w2v.demo.TextFileCreateVectors ${PARAMS} -output ${VECTOR_FILE} -coordinate ${PORT} -workers ${WORKERS} &
+COORDINATOR=$!
+sleep 5
+for i in $(seq ${WORKERS}); do
+  java -cp ${CLASSPATH} com.rondhuit.w2v.demo.TextFileCreateVectors ${PARAMS} -worker 127.0.0.1:${PORT} &
+done
+wait ${COORDINATOR}
+wait
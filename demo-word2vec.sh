@@ -37,6 +37,7 @@ done
 LUCENE_JAR=$(ls lib/lucene-core-*.jar)
 LUCENE_JAR=${LUCENE_JAR}:$(ls lib/lucene-analyzers-common-*.jar)
 LUCENE_JAR=${LUCENE_JAR}:$(ls lib/lucene-analyzers-kuromoji-*.jar)
+LUCENE_JAR=${LUCENE_JAR}:$(ls lib/lucene-queryparser-*.jar)
 RHCOM_JAR=$(ls lib/RONDHUIT-COMMONS-*.jar)
 SLF4J_JAR=$(ls lib/slf4j-api-*.jar)
 SLF4J_JAR=${SLF4J_JAR}:$(ls lib/slf4j-jdk14-*.jar)
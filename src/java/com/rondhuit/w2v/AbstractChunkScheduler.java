@@ -0,0 +1,87 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Hands out the chunks of the corpus to the training threads and tells them when an iteration
+ * has ended. The training ends after the number of iterations, or at the deadline if one is set.
+ * {@link ChunkScheduler} is the scheduler of the threads of a process, and {@link SharedJob}
+ * has the scheduler of the processes which train a job together.
+ */
+public abstract class AbstractChunkScheduler {
+
+  private volatile long deadline;
+
+  public abstract int getNumChunks();
+
+  /**
+   * Returns the next chunk for the thread, or -1 if all chunks of the current iteration have been taken
+   */
+  public abstract int nextChunk(int id);
+
+  /**
+   * Records that the thread has trained all the words of the chunk
+   */
+  public abstract void finish(int chunk);
+
+  /**
+   * Waits for all the chunks of the current iteration which have been taken to be finished
+   */
+  public abstract void awaitFinished() throws InterruptedIOException;
+
+  /**
+   * Waits for all the threads to finish the current iteration
+   * @return false if the training has ended
+   */
+  public abstract boolean awaitNextIteration() throws InterruptedIOException;
+
+  /**
+   * Returns the number of the iterations which have been completed
+   */
+  public abstract int getIteration();
+
+  /**
+   * Returns the number of the iterations to train, which may be cut short by the deadline
+   */
+  public abstract int getIterations();
+
+  /**
+   * Stops handing out the chunks at the time
+   * @param deadline the time in milliseconds, or 0 not to stop before the last iteration
+   */
+  public void setDeadline(long deadline){
+    this.deadline = deadline;
+  }
+
+  public long getDeadline(){
+    return deadline;
+  }
+
+  /**
+   * Ends the training as the deadline does, at the chunks which are being trained
+   */
+  public void stop(){
+    deadline = System.currentTimeMillis();
+  }
+
+  protected boolean pastDeadline(){
+    return deadline > 0 && System.currentTimeMillis() >= deadline;
+  }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.util.Arrays;
+
+/**
+ * Thread private view of a shared {@link WeightMatrix} which adapts the learning rate of every row
+ * by AdaGrad in place of the linear decay. The update of a row is divided by the square root of the sum
+ * of the mean squared gradients that the row has had so far, so the rows of frequent words slow down
+ * early while the rows of rare words still learn quickly from their few occurrences. The sums are
+ * one float per row, shared by the views of all the threads and updated without locks as the weights are.
+ */
+public class AdaGradWeightMatrix extends WeightMatrix {
+
+  /**
+   * The initial sum of the squared gradients, which lets the first steps of a row be several times
+   * as large as the starting alpha
+   */
+  static final float INITIAL_SUM = 0.004F;
+
+  private final WeightMatrix matrix;
+  private final float[] sums;
+  private final double alpha;
+
+  /**
+   * @param sums the sums of the squared gradients of the rows, which are {@link #INITIAL_SUM} at first
+   * @param alpha the learning rate which the training threads multiply the gradients by
+   */
+  public AdaGradWeightMatrix(WeightMatrix matrix, float[] sums, double alpha){
+    super(matrix.getRows(), matrix.getColumns(), matrix.getKernel());
+    this.matrix = matrix;
+    this.sums = sums;
+    this.alpha = alpha;
+  }
+
+  /**
+   * Creates the sums of the squared gradients of the rows for the views of the matrix
+   */
+  public static float[] createSums(int rows){
+    float[] sums = new float[rows];
+    Arrays.fill(sums, INITIAL_SUM);
+    return sums;
+  }
+
+  @Override
+  public double get(int row, int column){
+    return matrix.get(row, column);
+  }
+
+  @Override
+  public void set(int row, int column, double value){
+    matrix.set(row, column, value);
+  }
+
+  @Override
+  public double dot(int row, double[] x){
+    return matrix.dot(row, x);
+  }
+
+  @Override
+  public void accumulate(int row, double g, double[] y){
+    matrix.accumulate(row, g, y);
+  }
+
+  @Override
+  public void update(int row, double g, double[] x){
+    // g * x is alpha times the gradient
+    final double gradient = g / alpha;
+    final float sum = sums[row] + (float)(gradient * gradient * kernel.dot(x, x, 0, columns) / columns);
+    sums[row] = sum;
+    matrix.update(row, g / Math.sqrt(sum), x);
+  }
+
+  @Override
+  public void copyRow(int row, double[] y){
+    matrix.copyRow(row, y);
+  }
+}
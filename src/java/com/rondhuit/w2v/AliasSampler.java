@@ -0,0 +1,96 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * Walker's alias method (Vose's construction). Each of the vocabSize columns holds
+ * a probability threshold and an alias word, so a sample needs one column and
+ * one comparison, and the tables fit in cache for moderate vocabularies.
+ */
+public final class AliasSampler extends NegativeSampler {
+
+  static final int PROB_BITS           = 24;
+  static final int PROB_ONE            = 1 << PROB_BITS;
+  static final int PROB_MASK           = PROB_ONE - 1;
+
+  private final int vocabSize;
+  private final int[] threshold;    // probability to keep the column scaled by PROB_ONE
+  private final int[] alias;
+
+  public AliasSampler(VocabWord[] vocab, int vocabSize){
+    this.vocabSize = vocabSize;
+    threshold = new int[vocabSize];
+    alias = new int[vocabSize];
+
+    final double[] prob = new double[vocabSize];
+    double trainWordsPow = 0;
+    for(int i = 0; i < vocabSize; i++){
+      prob[i] = Math.pow(vocab[i].cn, POWER);
+      trainWordsPow += prob[i];
+    }
+    // scale so that the average is 1
+    final int[] small = new int[vocabSize];
+    final int[] large = new int[vocabSize];
+    int ns = 0, nl = 0;
+    for(int i = 0; i < vocabSize; i++){
+      prob[i] = prob[i] * vocabSize / trainWordsPow;
+      if(prob[i] < 1) small[ns++] = i;
+      else large[nl++] = i;
+    }
+    while(ns > 0 && nl > 0){
+      final int s = small[--ns];
+      final int l = large[--nl];
+      threshold[s] = (int)(prob[s] * PROB_ONE);
+      alias[s] = l;
+      prob[l] = (prob[l] + prob[s]) - 1;
+      if(prob[l] < 1) small[ns++] = l;
+      else large[nl++] = l;
+    }
+    // the rest are 1 except for rounding errors
+    while(nl > 0){
+      final int l = large[--nl];
+      threshold[l] = PROB_ONE;
+      alias[l] = l;
+    }
+    while(ns > 0){
+      final int s = small[--ns];
+      threshold[s] = PROB_ONE;
+      alias[s] = s;
+    }
+  }
+
+  /**
+   * Like the table of the C tool, the end of sentence (word 0) is replaced by a random word
+   */
+  @Override
+  public int sample(long random){
+    final int column = column(random, vocabSize);
+    int target = (int)(random >>> 8 & PROB_MASK) < threshold[column] ? column : alias[column];
+    if (target == 0) target = replaceEndOfSentence(random, vocabSize);
+    return target;
+  }
+
+  /**
+   * Returns the column for the higher 32 bits of the random value, so that every column
+   * of a vocabulary up to 2^31 words is reachable. The probability is taken from the 24 bits below them.
+   */
+  static int column(long random, int vocabSize){
+    return (int)(((random >>> 32) * vocabSize) >>> 32);
+  }
+}
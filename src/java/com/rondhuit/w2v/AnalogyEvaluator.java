@@ -0,0 +1,149 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import com.rondhuit.commons.IOUtils;
+
+/**
+ * Computes the top-1 accuracy of the word analogy questions "a is to b as c is to d" as
+ * {@link com.rondhuit.w2v.demo.ComputeAccuracy} does: the answer is the nearest word to b - a + c
+ * other than a, b and c. The questions are read from a file of the same format, where the lines
+ * starting with ":" begin sections and the others have 4 words. Words are compared in upper case.
+ */
+public class AnalogyEvaluator {
+
+  private final List<String[]> questions;
+
+  AnalogyEvaluator(List<String[]> questions){
+    this.questions = questions;
+  }
+
+  public AnalogyEvaluator(String questionFile) throws IOException {
+    questions = new ArrayList<String[]>();
+    BufferedReader br = null;
+    try{
+      br = new BufferedReader(new InputStreamReader(new FileInputStream(questionFile), Word2vec.ENCODING));
+      String line;
+      while((line = br.readLine()) != null){
+        final String[] words = line.trim().toUpperCase().split("\\s+");
+        if(words.length != 4 || words[0].startsWith(":")) continue;
+        questions.add(words);
+      }
+    }
+    finally{
+      IOUtils.closeQuietly(br);
+    }
+  }
+
+  public int getNumQuestions(){
+    return questions.size();
+  }
+
+  /**
+   * Returns the evaluator of the questions whose words are all in the vocabulary, or of the number of them
+   * drawn at random if there are more
+   */
+  public AnalogyEvaluator sample(String[] vocab, int maxQuestions, long seed){
+    Set<String> words = new HashSet<String>();
+    for(String word : vocab){
+      if(word != null) words.add(word.toUpperCase());
+    }
+    List<String[]> answerable = new ArrayList<String[]>();
+    for(String[] question : questions){
+      if(words.contains(question[0]) && words.contains(question[1]) && words.contains(question[2]) && words.contains(question[3]))
+        answerable.add(question);
+    }
+    if(answerable.size() > maxQuestions){
+      Collections.shuffle(answerable, new Random(seed));
+      answerable = new ArrayList<String[]>(answerable.subList(0, maxQuestions));
+    }
+    return new AnalogyEvaluator(answerable);
+  }
+
+  /**
+   * Returns the accuracy of the questions whose words are all in the vectors file
+   * @param threshold the number of the most frequent words to answer from, or 0 for all the words
+   */
+  public double evaluate(VectorsReader reader, int threshold){
+    final int words = reader.getNumWords();
+    final int size = reader.getSize();
+    String[] vocab = new String[words];
+    float[][] vectors = new float[words][size];
+    for(int i = 0; i < words; i++){
+      vocab[i] = reader.getWord(i);
+      for(int j = 0; j < size; j++){
+        vectors[i][j] = reader.getMatrixElement(i, j);
+      }
+    }
+    return evaluate(vocab, vectors, threshold);
+  }
+
+  /**
+   * Returns the accuracy of the questions whose words are all in the vocabulary
+   * @param vectors the vectors of the words normalized to the unit length
+   * @param threshold the number of the most frequent words to answer from, or 0 for all the words
+   */
+  public double evaluate(String[] vocab, float[][] vectors, int threshold){
+    final int words = threshold > 0 ? Math.min(threshold, vocab.length) : vocab.length;
+    Map<String, Integer> index = new HashMap<String, Integer>();
+    for(int i = 0; i < words; i++){
+      // the end of line of TextFileCorpus has no word
+      if(vocab[i] != null) index.put(vocab[i].toUpperCase(), i);
+    }
+    final int size = words > 0 ? vectors[0].length : 0;
+    final double[] vec = new double[size];
+    int seen = 0, correct = 0;
+    for(String[] question : questions){
+      final Integer a = index.get(question[0]), b = index.get(question[1]), c = index.get(question[2]), d = index.get(question[3]);
+      if(a == null || b == null || c == null || d == null) continue;
+      for(int j = 0; j < size; j++){
+        vec[j] = vectors[b][j] - vectors[a][j] + vectors[c][j];
+      }
+      int best = -1;
+      double bestDist = -Double.MAX_VALUE;
+      for(int i = 0; i < words; i++){
+        if(i == a || i == b || i == c || vocab[i] == null) continue;
+        double dist = 0;
+        for(int j = 0; j < size; j++){
+          dist += vec[j] * vectors[i][j];
+        }
+        if(dist > bestDist){
+          bestDist = dist;
+          best = i;
+        }
+      }
+      seen++;
+      if(best == d) correct++;
+    }
+    return seen == 0 ? 0 : correct / (double)seen;
+  }
+}
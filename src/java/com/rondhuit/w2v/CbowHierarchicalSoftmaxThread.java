@@ -0,0 +1,58 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * Continuous bag of words with hierarchical softmax
+ */
+class CbowHierarchicalSoftmaxThread extends TrainModelThread {
+
+  CbowHierarchicalSoftmaxThread(Word2vec vec, Corpus corpus, Config config, int id){
+    super(vec, corpus, config, id);
+  }
+
+  @Override
+  void trainSentence(int[] sen, int sentenceLength){
+    for(int sentencePosition = 0; sentencePosition < sentenceLength; sentencePosition++){
+      final int word = sen[sentencePosition];
+      clear(neu1);
+      clear(neu1e);
+      final int b = nextWindowShrink();
+      // in -> hidden
+      int cw = 0;
+      for (int a = b; a < window * 2 + 1 - b; a++) if (a != window) {
+        final int c = sentencePosition - window + a;
+        if (c < 0) continue;
+        if (c >= sentenceLength) continue;
+        syn0.accumulate(sen[c], 1, neu1);
+        cw++;
+      }
+      if (cw == 0) continue;
+      for (int c = 0; c < layer1Size; c++) neu1[c] /= cw;
+      hierarchicalSoftmax(word);
+      // hidden -> in
+      for (int a = b; a < window * 2 + 1 - b; a++) if (a != window) {
+        final int c = sentencePosition - window + a;
+        if (c < 0) continue;
+        if (c >= sentenceLength) continue;
+        syn0.update(sen[c], 1, neu1e);
+      }
+    }
+  }
+}
@@ -0,0 +1,366 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rondhuit.commons.IOUtils;
+
+/**
+ * A snapshot of a training run: the sorted vocabulary with the counts, the weights,
+ * the learning rate and the position of the {@link ChunkScheduler}.
+ * The snapshot is taken while the training threads keep updating the weights, so the
+ * weights of a row may be a mix of before and after an update, which is not different
+ * from what the Hogwild updates of the threads see anyway. The position is taken before
+ * the weights and the threads merge their copies of the hot rows in between, so every chunk
+ * which is recorded as finished is in the weights and the chunks which were being trained
+ * are trained again from their start after resume. The elapsed training time is kept
+ * for the time budget of the resumed training, and the sums of the squared gradients of AdaGrad
+ * for its learning rates.
+ * The checkpoint which is written at the end of a training is the model that
+ * {@link Word2vec#updateModel(CorpusFactory)} trains further on new documents.
+ */
+public final class Checkpoint {
+
+  private static Logger logger = LoggerFactory.getLogger(Checkpoint.class);
+
+  static final int MAGIC   = 0x57325643;    // "W2VC"
+  static final int VERSION = 6;
+
+  final long trainedWords;
+  final long trainWords;
+  final long elapsedMillis;
+  final float startingAlpha, alpha;
+  final ChunkScheduler.Position position;
+  final VocabWord[] vocab;
+
+  Checkpoint(long trainedWords, long trainWords, long elapsedMillis, float startingAlpha, float alpha, ChunkScheduler.Position position, VocabWord[] vocab){
+    this.trainedWords = trainedWords;
+    this.trainWords = trainWords;
+    this.elapsedMillis = elapsedMillis;
+    this.startingAlpha = startingAlpha;
+    this.alpha = alpha;
+    this.position = position;
+    this.vocab = vocab;
+  }
+
+  public long getTrainedWords(){
+    return trainedWords;
+  }
+
+  /**
+   * Returns the training time until the checkpoint, including the training before the previous resumes
+   */
+  public long getElapsedMillis(){
+    return elapsedMillis;
+  }
+
+  public float getStartingAlpha(){
+    return startingAlpha;
+  }
+
+  public float getAlpha(){
+    return alpha;
+  }
+
+  public ChunkScheduler.Position getPosition(){
+    return position;
+  }
+
+  /**
+   * Writes the snapshot of the running training to a temporary file and renames it to the file,
+   * so that the previous checkpoint is kept if the process dies while writing
+   */
+  static void write(File file, Word2vec vec, Corpus corpus, Config config) throws IOException {
+    final ChunkScheduler.Position position = vec.getPosition();
+    final long trainedWords = vec.progress.sum();
+    final long elapsedMillis = vec.getElapsedMillis(System.currentTimeMillis());
+    final float alpha = TrainModelThread.scheduleAlpha(config, vec.startingAlpha, trainedWords,
+        (double)config.getIter() * corpus.getTrainWords(), elapsedMillis);
+    if(!vec.awaitMergedReplicas())
+      logger.warn("the hot rows of some threads are not merged into {}", file);
+    final int vocabSize = corpus.getVocabSize();
+    final VocabWord[] vocab = corpus.getVocab();
+    final int layer1Size = config.getLayer1Size();
+
+    File tmp = new File(file.getPath() + ".tmp");
+    DataOutputStream out = null;
+    try{
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(layer1Size);
+      out.writeInt(vocabSize);
+      out.writeBoolean(config.useHierarchicalSoftmax());
+      out.writeInt(config.getNegative());
+
+      out.writeLong(trainedWords);
+      out.writeLong(corpus.getTrainWords());
+      out.writeLong(elapsedMillis);
+      out.writeFloat(vec.startingAlpha);
+      out.writeFloat(alpha);
+      out.writeInt(position.getIteration());
+      out.writeInt(position.getNumChunks());
+      final int[] pendingChunks = position.getPendingChunks();
+      out.writeInt(pendingChunks.length);
+      for(int chunk : pendingChunks){
+        out.writeInt(chunk);
+      }
+
+      writeVocab(out, vocab, vocabSize);
+
+      final double[] row = new double[layer1Size];
+      writeMatrix(out, vec.syn0, vocabSize, row);
+      if(config.useHierarchicalSoftmax()) writeMatrix(out, vec.syn1, vocabSize, row);
+      if(config.getNegative() > 0) writeMatrix(out, vec.syn1neg, vocabSize, row);
+      writeSums(out, vec.adaGradSums, 0, vocabSize);
+      if(config.useHierarchicalSoftmax()) writeSums(out, vec.adaGradSums, 1, vocabSize);
+      if(config.getNegative() > 0) writeSums(out, vec.adaGradSums, 2, vocabSize);
+      out.close();
+      out = null;
+    }
+    finally{
+      IOUtils.closeQuietly(out);
+    }
+
+    if(!tmp.renameTo(file)){
+      // the target cannot be replaced on some platforms
+      if(!file.delete() || !tmp.renameTo(file))
+        throw new IOException(String.format("cannot rename %s to %s", tmp, file));
+    }
+  }
+
+  /**
+   * Writes the words with their counts, from which the Huffman codes are built again.
+   * A word is the length of its UTF-8 bytes and the bytes, as a word can be longer than writeUTF allows.
+   */
+  static void writeVocab(DataOutputStream out, VocabWord[] vocab, int vocabSize) throws IOException {
+    for(int i = 0; i < vocabSize; i++){
+      final VocabWord vw = vocab[i];
+      // the end of line is counted as a null word by TextFileCorpus
+      if(vw.word == null) out.writeInt(-1);
+      else{
+        final byte[] bytes = vw.word.getBytes(Word2vec.ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      out.writeLong(vw.cn);
+    }
+  }
+
+  static VocabWord[] readVocab(DataInputStream in, int vocabSize) throws IOException {
+    VocabWord[] vocab = new VocabWord[vocabSize];
+    byte[] bytes = new byte[64];
+    for(int i = 0; i < vocabSize; i++){
+      final int length = in.readInt();
+      String word = null;
+      if(length >= 0){
+        if(length > bytes.length) bytes = new byte[Math.max(length, bytes.length * 2)];
+        in.readFully(bytes, 0, length);
+        word = new String(bytes, 0, length, Word2vec.ENCODING);
+      }
+      else if(length != -1) throw new IOException(String.format("invalid length %d of the word %d", length, i));
+      final VocabWord vw = new VocabWord(word);
+      vw.cn = in.readLong();
+      vocab[i] = vw;
+    }
+    return vocab;
+  }
+
+  static void writeMatrix(DataOutputStream out, WeightMatrix matrix, int rows, double[] row) throws IOException {
+    final ByteBuffer buffer = rowBuffer(row.length);
+    for(int i = 0; i < rows; i++){
+      matrix.copyRow(i, row);
+      writeRow(out, row, buffer);
+    }
+  }
+
+  /**
+   * Writes the sums of the squared gradients of AdaGrad of the matrix, if the training has created them
+   * @param index 0 for syn0, 1 for syn1 and 2 for syn1neg
+   */
+  static void writeSums(DataOutputStream out, float[][] sums, int index, int rows) throws IOException {
+    final float[] s = sums == null ? null : sums[index];
+    out.writeBoolean(s != null);
+    if(s == null) return;
+    for(int i = 0; i < rows; i++){
+      out.writeFloat(s[i]);
+    }
+  }
+
+  /**
+   * Reads the sums of the squared gradients of AdaGrad of the matrices into the model. The sums of syn1
+   * stay with the inner nodes of the same index like its weights.
+   * @param map the row to read each row of syn0 and syn1neg into, or null to read them into the same rows
+   */
+  static void readSums(DataInputStream in, Word2vec vec, Config config, int rows, int[] map) throws IOException {
+    final float[][] sums = new float[3][];
+    sums[0] = readSums(in, rows, vec.syn0.getRows(), map);
+    if(config.useHierarchicalSoftmax()) sums[1] = readSums(in, rows, vec.syn1.getRows(), null);
+    if(config.getNegative() > 0) sums[2] = readSums(in, rows, vec.syn1neg.getRows(), map);
+    if(sums[0] != null || sums[1] != null || sums[2] != null) vec.adaGradSums = sums;
+  }
+
+  static float[] readSums(DataInputStream in, int rows, int size, int[] map) throws IOException {
+    if(!in.readBoolean()) return null;
+    // the rows of the new words start from the initial sum
+    final float[] sums = AdaGradWeightMatrix.createSums(size);
+    for(int i = 0; i < rows; i++){
+      final float sum = in.readFloat();
+      sums[map == null ? i : map[i]] = sum;
+    }
+    return sums;
+  }
+
+  /**
+   * Returns the buffer of {@link #writeRow(DataOutputStream, double[], ByteBuffer)} and
+   * {@link #readRow(DataInputStream, double[], ByteBuffer)} for the rows of the columns
+   */
+  static ByteBuffer rowBuffer(int columns){
+    return ByteBuffer.allocate(columns * 4);
+  }
+
+  /**
+   * Writes the row as the floats of writeFloat, in a single write of the buffer
+   */
+  static void writeRow(DataOutputStream out, double[] row, ByteBuffer buffer) throws IOException {
+    for(int j = 0; j < row.length; j++){
+      buffer.putFloat(j * 4, (float)row[j]);
+    }
+    out.write(buffer.array(), 0, row.length * 4);
+  }
+
+  static void readRow(DataInputStream in, double[] row, ByteBuffer buffer) throws IOException {
+    in.readFully(buffer.array(), 0, row.length * 4);
+    for(int j = 0; j < row.length; j++){
+      row[j] = buffer.getFloat(j * 4);
+    }
+  }
+
+  /**
+   * Restores the vocabulary of the corpus and the weights from the checkpoint file
+   * @return the position of the training to resume from
+   */
+  static Checkpoint read(File file, Word2vec vec, Corpus corpus, Config config) throws IOException {
+    DataInputStream in = null;
+    try{
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      final Checkpoint checkpoint = readState(in, file, config);
+      final int vocabSize = checkpoint.vocab.length;
+      corpus.restoreVocab(checkpoint.vocab, checkpoint.trainWords);
+
+      vec.createNet(vocabSize);
+      vec.createBinaryTree(corpus);
+      readMatrix(in, vec.syn0, vocabSize, config.getLayer1Size(), null);
+      if(config.useHierarchicalSoftmax()) readMatrix(in, vec.syn1, vocabSize, config.getLayer1Size(), null);
+      if(config.getNegative() > 0) readMatrix(in, vec.syn1neg, vocabSize, config.getLayer1Size(), null);
+      readSums(in, vec, config, vocabSize, null);
+      return checkpoint;
+    }
+    finally{
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Restores the vocabulary and the weights from the checkpoint file, then adds the words of the corpus
+   * to the vocabulary. The rows of the new words are initialized as {@link Word2vec#initNet(Corpus)} does
+   * and the Huffman tree is built again from the updated counts. The inner nodes of the new tree keep
+   * the weights of the nodes with the same index in the old tree, which are retrained by the update.
+   */
+  static Checkpoint update(File file, Word2vec vec, Corpus corpus, Config config) throws IOException {
+    DataInputStream in = null;
+    try{
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      final Checkpoint checkpoint = readState(in, file, config);
+      final int oldSize = checkpoint.vocab.length;
+      corpus.restoreVocab(checkpoint.vocab, checkpoint.trainWords);
+      final int[] rows = corpus.updateVocab();
+      final int vocabSize = corpus.getVocabSize();
+
+      vec.createNet(vocabSize);
+      vec.initSyn0(vocabSize);
+      readMatrix(in, vec.syn0, oldSize, config.getLayer1Size(), rows);
+      if(config.useHierarchicalSoftmax()) readMatrix(in, vec.syn1, oldSize, config.getLayer1Size(), null);
+      if(config.getNegative() > 0) readMatrix(in, vec.syn1neg, oldSize, config.getLayer1Size(), rows);
+      readSums(in, vec, config, oldSize, rows);
+      vec.createBinaryTree(corpus);
+      return checkpoint;
+    }
+    finally{
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Reads everything but the weights
+   */
+  static Checkpoint readState(DataInputStream in, File file, Config config) throws IOException {
+    if(in.readInt() != MAGIC || in.readInt() != VERSION)
+      throw new IOException(String.format("%s is not a checkpoint file of this version", file));
+    final int layer1Size = in.readInt();
+    final int vocabSize = in.readInt();
+    final boolean hs = in.readBoolean();
+    final int negative = in.readInt();
+    if(layer1Size != config.getLayer1Size() || hs != config.useHierarchicalSoftmax() || (negative > 0) != (config.getNegative() > 0))
+      throw new IllegalArgumentException(String.format("%s was written with -size %d%s -negative %d", file, layer1Size, hs ? " -hs" : "", negative));
+
+    final long trainedWords = in.readLong();
+    final long trainWords = in.readLong();
+    final long elapsedMillis = in.readLong();
+    final float startingAlpha = in.readFloat();
+    final float alpha = in.readFloat();
+    final int iteration = in.readInt();
+    final int numChunks = in.readInt();
+    final int[] pendingChunks = new int[in.readInt()];
+    for(int i = 0; i < pendingChunks.length; i++){
+      pendingChunks[i] = in.readInt();
+    }
+
+    final VocabWord[] vocab = readVocab(in, vocabSize);
+    return new Checkpoint(trainedWords, trainWords, elapsedMillis, startingAlpha, alpha,
+        new ChunkScheduler.Position(iteration, numChunks, pendingChunks), vocab);
+  }
+
+  /**
+   * @param map the row to read each row of the file into, or null to read them into the same rows
+   */
+  static void readMatrix(DataInputStream in, WeightMatrix matrix, int rows, int columns, int[] map) throws IOException {
+    final double[] values = new double[columns];
+    final ByteBuffer buffer = rowBuffer(columns);
+    for(int i = 0; i < rows; i++){
+      final int row = map == null ? i : map[i];
+      readRow(in, values, buffer);
+      for(int j = 0; j < columns; j++){
+        matrix.set(row, j, values[j]);
+      }
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out the chunks of the corpus to the training threads. At the start of every iteration
+ * each thread gets a contiguous range of chunks in its own deque and takes them from the head.
+ * A thread whose deque is empty steals from the tail of the others, so every chunk is
+ * trained exactly once per iteration and no thread sits idle while work is left.
+ * The scheduler also keeps track of the chunks which have been finished, so that
+ * a checkpoint can record where the training is and resume from there.
+ * The training ends after the number of iterations, or at the deadline if one is set.
+ */
+public class ChunkScheduler extends AbstractChunkScheduler {
+
+  /**
+   * Corpora are divided into about this many chunks per thread
+   */
+  public static final int CHUNKS_PER_THREAD = 64;
+
+  private static Logger logger = LoggerFactory.getLogger(ChunkScheduler.class);
+
+  private final int numChunks, iterations;
+  private final List<LinkedBlockingDeque<Integer>> deques;
+  private final CyclicBarrier barrier;
+  private final boolean[] finished;
+  private final int[] shard;
+  private int iteration, finishedChunks, abandonedChunks, startIteration;
+  private boolean ended;
+  private long startMillis;
+
+  public ChunkScheduler(int numThreads, int numChunks, int iterations){
+    this(numThreads, numChunks, iterations, null);
+  }
+
+  /**
+   * Creates the scheduler which starts from the position of a checkpoint
+   * @param position the position to resume from, or null to start from the first iteration
+   */
+  public ChunkScheduler(int numThreads, int numChunks, int iterations, Position position){
+    this(numThreads, numChunks, iterations, position, null);
+  }
+
+  /**
+   * Creates the scheduler which hands out only a part of the chunks in every iteration
+   * @param shard the chunks to hand out, or null for all the chunks
+   */
+  public ChunkScheduler(int numThreads, int numChunks, int iterations, Position position, int[] shard){
+    this.numChunks = numChunks;
+    this.iterations = iterations;
+    this.shard = shard;
+    finished = new boolean[numChunks];
+    deques = new ArrayList<LinkedBlockingDeque<Integer>>(numThreads);
+    for(int i = 0; i < numThreads; i++){
+      deques.add(new LinkedBlockingDeque<Integer>());
+    }
+    barrier = new CyclicBarrier(numThreads, new Runnable(){
+      @Override
+      public void run(){
+        nextIteration();
+      }
+    });
+    if(position == null){
+      fill(shard);
+    }
+    else{
+      if(position.numChunks != numChunks)
+        throw new IllegalArgumentException(String.format("the position has %d chunks, but the corpus has %d", position.numChunks, numChunks));
+      iteration = position.iteration;
+      fill(position.pendingChunks);
+    }
+  }
+
+  synchronized void nextIteration(){
+    // an iteration which has been cut at the deadline stays the position to resume from
+    if(finishedChunks < numChunks || iteration + 1 >= iterations || pastDeadline()){
+      ended = true;
+      return;
+    }
+    iteration++;
+    final long deadline = getDeadline();
+    if(deadline > 0){
+      final long now = System.currentTimeMillis();
+      final long passMillis = (now - startMillis) / (iteration - startIteration);
+      logger.info("{} iterations have taken {} ms each on average, about {} more fit in the time budget",
+          new Object[]{ iteration - startIteration, passMillis, (deadline - now) / Math.max(passMillis, 1) });
+    }
+    fill(shard);
+  }
+
+  /**
+   * Stops handing out the chunks at the time. The iteration which is running at the time
+   * is cut short, and the chunks which have not been taken are left to a checkpoint.
+   * @param deadline the time in milliseconds, or 0 not to stop before the last iteration
+   */
+  @Override
+  public synchronized void setDeadline(long deadline){
+    super.setDeadline(deadline);
+    startMillis = System.currentTimeMillis();
+    startIteration = iteration;
+  }
+
+  /**
+   * Takes all the chunks which are left in the deques
+   */
+  private synchronized void abandon(){
+    for(LinkedBlockingDeque<Integer> deque : deques){
+      abandonedChunks += deque.drainTo(new ArrayList<Integer>());
+    }
+    notifyAll();
+  }
+
+  /**
+   * Hands out the chunks to the deques
+   * @param chunks the chunks to hand out, or null for all the chunks
+   */
+  synchronized void fill(int[] chunks){
+    final int numThreads = deques.size();
+    final int n = chunks == null ? numChunks : chunks.length;
+    Arrays.fill(finished, chunks != null);
+    finishedChunks = numChunks - n;
+    abandonedChunks = 0;
+    for(int i = 0; i < numThreads; i++){
+      final int from = (int)((long)n * i / numThreads);
+      final int to = (int)((long)n * (i + 1) / numThreads);
+      LinkedBlockingDeque<Integer> deque = deques.get(i);
+      deque.clear();
+      for(int c = from; c < to; c++){
+        final int chunk = chunks == null ? c : chunks[c];
+        finished[chunk] = false;
+        deque.addLast(chunk);
+      }
+    }
+  }
+
+  @Override
+  public int getNumChunks(){
+    return numChunks;
+  }
+
+  @Override
+  public int nextChunk(int id){
+    if(pastDeadline()){
+      abandon();
+      return -1;
+    }
+    Integer chunk = deques.get(id).pollFirst();
+    if(chunk != null) return chunk;
+    final int numThreads = deques.size();
+    for(int i = 1; i < numThreads; i++){
+      chunk = deques.get((id + i) % numThreads).pollLast();
+      if(chunk != null) return chunk;
+    }
+    return -1;
+  }
+
+  @Override
+  public synchronized void finish(int chunk){
+    if(finished[chunk]) return;
+    finished[chunk] = true;
+    if(++finishedChunks + abandonedChunks >= numChunks) notifyAll();
+  }
+
+  @Override
+  public synchronized void awaitFinished() throws InterruptedIOException {
+    try{
+      while(finishedChunks + abandonedChunks < numChunks){
+        wait();
+      }
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the chunks to be trained");
+    }
+  }
+
+  @Override
+  public synchronized int getIteration(){
+    return iteration;
+  }
+
+  @Override
+  public int getIterations(){
+    return iterations;
+  }
+
+  /**
+   * Returns the current iteration and the chunks which have not been finished in it.
+   * The chunks which are being trained are not finished, so they will be trained again from
+   * their start when the training is resumed from the position.
+   */
+  public synchronized Position getPosition(){
+    int n = 0;
+    for(int c = 0; c < numChunks; c++){
+      if(!finished[c]) n++;
+    }
+    int[] pendingChunks = new int[n];
+    n = 0;
+    for(int c = 0; c < numChunks; c++){
+      if(!finished[c]) pendingChunks[n++] = c;
+    }
+    return new Position(iteration, numChunks, pendingChunks);
+  }
+
+  /**
+   * Waits for all the threads to finish the current iteration. The chunks are then handed out again
+   * unless the training has ended.
+   * @return false if the training has ended
+   */
+  @Override
+  public boolean awaitNextIteration() throws InterruptedIOException {
+    try{
+      barrier.await();
+      synchronized(this){
+        return !ended;
+      }
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the other training threads");
+    }
+    catch(BrokenBarrierException e){
+      throw new InterruptedIOException("another training thread has stopped");
+    }
+  }
+
+  /**
+   * Where the training is in the corpus
+   */
+  public static final class Position {
+    final int iteration, numChunks;
+    final int[] pendingChunks;
+
+    public Position(int iteration, int numChunks, int[] pendingChunks){
+      this.iteration = iteration;
+      this.numChunks = numChunks;
+      this.pendingChunks = pendingChunks;
+    }
+
+    public int getIteration(){
+      return iteration;
+    }
+
+    public int getNumChunks(){
+      return numChunks;
+    }
+
+    public int[] getPendingChunks(){
+      return pendingChunks;
+    }
+  }
+}
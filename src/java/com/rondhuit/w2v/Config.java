@@ -26,12 +26,39 @@ public abstract class Config {
   static final int DEF_LAYER1_SIZE     = 100;
   static final int DEF_NUM_THREADS     = 4;
   static final float DEF_SAMPLE        = 0.001f;
+  static final int DEF_HOT_ROWS_MERGE_INTERVAL = 100000;
+  static final int DEF_CHECKPOINT_INTERVAL     = 1800;
+  static final int DEF_EXCHANGE_INTERVAL       = 10;
+  static final int DEF_PROBE_INTERVAL          = 60;
+  static final int DEF_PROBE_PATIENCE          = 3;
+  static final int DEF_PROBE_WORDS             = 30000;
+  static final int DEF_PROBE_QUESTIONS         = 1000;
 
   protected String outputFile;
   protected int iter = DEF_ITER, window = DEF_WINDOW, minCount = DEF_MIN_COUNT, negative = DEF_NEGATIVE,
       layer1Size = DEF_LAYER1_SIZE, numThreads = DEF_NUM_THREADS;
-  protected boolean hs, cbow;
-  protected float sample = DEF_SAMPLE, alpha = 0.025f;
+  protected boolean hs, cbow, singlePrecision, minibatch;
+  protected float sample = DEF_SAMPLE, alpha = 0.025f, updateAlpha;
+  protected WeightMatrix.Storage weightStorage = WeightMatrix.Storage.HEAP;
+  protected String weightsDir = ".";
+  protected boolean preTouch;
+  protected VectorKernel.Type vectorKernel = VectorKernel.Type.AUTO;
+  protected NegativeSampler.Type negativeSampler = NegativeSampler.Type.ALIAS;
+  protected FastRandom.Type random = FastRandom.Type.LCG;
+  protected int hotRows, hotRowsMergeInterval = DEF_HOT_ROWS_MERGE_INTERVAL;
+  protected int readerThreads, autoTune;
+  protected String checkpointFile;
+  protected int checkpointInterval = DEF_CHECKPOINT_INTERVAL;
+  protected String coordinatorHost = "localhost";
+  protected int coordinatorPort, numWorkers, exchangeInterval = DEF_EXCHANGE_INTERVAL;
+  protected String sharedDir;
+  protected long timeBudget;
+  protected WeightMatrix.Optimizer optimizer = WeightMatrix.Optimizer.SGD;
+  protected String probeFile;
+  protected long memoryBudget;
+  protected boolean memoryFit;
+  protected int probeInterval = DEF_PROBE_INTERVAL, probePatience = DEF_PROBE_PATIENCE,
+      probeWords = DEF_PROBE_WORDS, probeQuestions = DEF_PROBE_QUESTIONS;
 
   public Config setOutputFile(String outputFile){
     this.outputFile = outputFile;
@@ -42,6 +69,198 @@ public abstract class Config {
     return outputFile;
   }
   
+  /**
+   * Sets the file to write the checkpoints of the training to. null (default) means no checkpoints.
+   */
+  public Config setCheckpointFile(String checkpointFile){
+    this.checkpointFile = checkpointFile;
+    return this;
+  }
+  
+  public String getCheckpointFile(){
+    return checkpointFile;
+  }
+  
+  /**
+   * Sets the interval of the checkpoints in seconds
+   */
+  public Config setCheckpointInterval(int checkpointInterval){
+    this.checkpointInterval = checkpointInterval;
+    return this;
+  }
+  
+  public int getCheckpointInterval(){
+    return checkpointInterval;
+  }
+  
+  /**
+   * Sets the address of the coordinator of the data parallel training. The coordinator listens on the port.
+   */
+  public Config setCoordinator(String host, int port){
+    this.coordinatorHost = host;
+    this.coordinatorPort = port;
+    return this;
+  }
+  
+  public String getCoordinatorHost(){
+    return coordinatorHost;
+  }
+  
+  public int getCoordinatorPort(){
+    return coordinatorPort;
+  }
+  
+  /**
+   * Sets the number of the workers that the coordinator waits for
+   */
+  public Config setNumWorkers(int numWorkers){
+    this.numWorkers = numWorkers;
+    return this;
+  }
+  
+  public int getNumWorkers(){
+    return numWorkers;
+  }
+  
+  /**
+   * Sets the interval in seconds of the workers to exchange the changes of the weights
+   */
+  public Config setExchangeInterval(int exchangeInterval){
+    this.exchangeInterval = exchangeInterval;
+    return this;
+  }
+  
+  public int getExchangeInterval(){
+    return exchangeInterval;
+  }
+  
+  /**
+   * Sets the directory of the job which several processes on the same host train together.
+   * The weights of the job are mapped from files in the directory.
+   */
+  public Config setSharedDir(String sharedDir){
+    this.sharedDir = sharedDir;
+    return this;
+  }
+  
+  public String getSharedDir(){
+    return sharedDir;
+  }
+  
+  /**
+   * Sets the wall-clock time in seconds which the training threads may take. The training runs
+   * as many iterations as fit in the time instead of {@link #getIter()}, the learning rate decays
+   * with the elapsed time and the last iteration is cut short at the end of the time.
+   * Learning the vocabulary and saving the vectors are not included. 0 means no budget.
+   */
+  public Config setTimeBudget(long timeBudget){
+    this.timeBudget = timeBudget;
+    return this;
+  }
+  
+  public long getTimeBudget(){
+    return timeBudget;
+  }
+  
+  /**
+   * Sets how the learning rate is applied to the rows of the weight matrices
+   */
+  public Config setOptimizer(WeightMatrix.Optimizer optimizer){
+    this.optimizer = optimizer;
+    return this;
+  }
+  
+  public WeightMatrix.Optimizer getOptimizer(){
+    return optimizer;
+  }
+  
+  /**
+   * Sets the analogy questions of the ComputeAccuracy format which probe the quality of the word vectors
+   * while training, see {@link QualityProbe}. The training stops early when the accuracy stops improving.
+   */
+  public Config setProbeFile(String probeFile){
+    this.probeFile = probeFile;
+    return this;
+  }
+  
+  public String getProbeFile(){
+    return probeFile;
+  }
+  
+  /**
+   * Sets the interval of the probes in seconds
+   */
+  public Config setProbeInterval(int probeInterval){
+    this.probeInterval = probeInterval;
+    return this;
+  }
+  
+  public int getProbeInterval(){
+    return probeInterval;
+  }
+  
+  /**
+   * Sets the number of the probes in a row which may not improve the best accuracy before the training stops
+   */
+  public Config setProbePatience(int probePatience){
+    this.probePatience = probePatience;
+    return this;
+  }
+  
+  public int getProbePatience(){
+    return probePatience;
+  }
+  
+  /**
+   * Sets the number of the most frequent words which the probes answer the questions from
+   */
+  public Config setProbeWords(int probeWords){
+    this.probeWords = probeWords;
+    return this;
+  }
+  
+  public int getProbeWords(){
+    return probeWords;
+  }
+  
+  /**
+   * Sets the number of the questions which are sampled for the probes
+   */
+  public Config setProbeQuestions(int probeQuestions){
+    this.probeQuestions = probeQuestions;
+    return this;
+  }
+  
+  public int getProbeQuestions(){
+    return probeQuestions;
+  }
+  
+  /**
+   * Sets the memory in MB which the models may take, including the direct buffers but not the mapped files.
+   * The models are checked before they are built, see {@link MemoryPreflight}.
+   * 0 (default) means that only the heap parts are checked against the max heap.
+   */
+  public Config setMemoryBudget(long memoryBudget){
+    this.memoryBudget = memoryBudget;
+    return this;
+  }
+  
+  public long getMemoryBudget(){
+    return memoryBudget;
+  }
+  
+  /**
+   * Sets whether the min-count is raised until the models fit in the memory, instead of refusing to train them
+   */
+  public Config setMemoryFit(boolean memoryFit){
+    this.memoryFit = memoryFit;
+    return this;
+  }
+  
+  public boolean isMemoryFit(){
+    return memoryFit;
+  }
+  
   public Config setIter(int iter){
     this.iter = iter;
     return this;
@@ -78,6 +297,15 @@ public abstract class Config {
     return negative;
   }
   
+  public Config setNegativeSampler(NegativeSampler.Type negativeSampler){
+    this.negativeSampler = negativeSampler;
+    return this;
+  }
+  
+  public NegativeSampler.Type getNegativeSampler(){
+    return negativeSampler;
+  }
+  
   public Config setLayer1Size(int layer1Size){
     this.layer1Size = layer1Size;
     return this;
@@ -96,6 +324,73 @@ public abstract class Config {
     return numThreads;
   }
   
+  /**
+   * Sets the number of threads which read the corpus for the training threads.
+   * 0 (default) means that the training threads read the corpus themselves.
+   */
+  public Config setReaderThreads(int readerThreads){
+    this.readerThreads = readerThreads;
+    return this;
+  }
+  
+  public int getReaderThreads(){
+    return readerThreads;
+  }
+  
+  /**
+   * Sets the length in seconds of the bursts which tune the numbers of the training threads and
+   * the reader threads on the corpus before the training, see {@link ThreadTuner}.
+   * 0 (default) means that the numbers of the config are used as they are.
+   */
+  public Config setAutoTune(int autoTune){
+    this.autoTune = autoTune;
+    return this;
+  }
+  
+  public int getAutoTune(){
+    return autoTune;
+  }
+  
+  /**
+   * Sets the starting learning rate of {@link Word2vec#updateModel(CorpusFactory)}
+   */
+  public Config setUpdateAlpha(float updateAlpha){
+    this.updateAlpha = updateAlpha;
+    return this;
+  }
+  
+  /**
+   * Returns the starting learning rate of the update; default is a tenth of the starting learning rate
+   */
+  public float getUpdateAlpha(){
+    return updateAlpha > 0 ? updateAlpha : alpha / 10;
+  }
+  
+  /**
+   * Sets the number of the most frequent words whose syn0/syn1neg rows are copied to every thread.
+   * 0 (default) means that all the threads update the shared rows directly.
+   */
+  public Config setHotRows(int hotRows){
+    this.hotRows = hotRows;
+    return this;
+  }
+  
+  public int getHotRows(){
+    return hotRows;
+  }
+  
+  /**
+   * Sets the number of words a thread trains between merging its copies of the hot rows
+   */
+  public Config setHotRowsMergeInterval(int hotRowsMergeInterval){
+    this.hotRowsMergeInterval = hotRowsMergeInterval;
+    return this;
+  }
+  
+  public int getHotRowsMergeInterval(){
+    return hotRowsMergeInterval;
+  }
+  
   public Config setUseHierarchicalSoftmax(boolean hs){
     this.hs = hs;
     return this;
@@ -114,6 +409,77 @@ public abstract class Config {
     return cbow;
   }
   
+  public Config setUseMinibatch(boolean minibatch){
+    this.minibatch = minibatch;
+    return this;
+  }
+  
+  /**
+   * Returns true if skip-gram with negative sampling shares the negative samples among
+   * all the context words of a target word and trains them as a minibatch
+   */
+  public boolean useMinibatch(){
+    return minibatch;
+  }
+  
+  public Config setUseSinglePrecision(boolean singlePrecision){
+    this.singlePrecision = singlePrecision;
+    return this;
+  }
+  
+  /**
+   * Returns true if the weight matrices are stored in float rather than double
+   */
+  public boolean useSinglePrecision(){
+    return singlePrecision;
+  }
+  
+  /**
+   * Sets where the weight matrices are stored. Off-heap storages (DIRECT and MAPPED) are
+   * always single precision and can hold more than Integer.MAX_VALUE elements.
+   */
+  public Config setWeightStorage(WeightMatrix.Storage weightStorage){
+    this.weightStorage = weightStorage;
+    return this;
+  }
+  
+  public WeightMatrix.Storage getWeightStorage(){
+    return weightStorage;
+  }
+  
+  /**
+   * Sets the directory of the weight files for MAPPED storage
+   */
+  public Config setWeightsDir(String weightsDir){
+    this.weightsDir = weightsDir;
+    return this;
+  }
+  
+  public String getWeightsDir(){
+    return weightsDir;
+  }
+  
+  public Config setUsePreTouch(boolean preTouch){
+    this.preTouch = preTouch;
+    return this;
+  }
+  
+  /**
+   * Returns true if every page of off-heap weights is touched before training
+   */
+  public boolean usePreTouch(){
+    return preTouch;
+  }
+  
+  public Config setVectorKernel(VectorKernel.Type vectorKernel){
+    this.vectorKernel = vectorKernel;
+    return this;
+  }
+  
+  public VectorKernel.Type getVectorKernel(){
+    return vectorKernel;
+  }
+  
   public Config setSample(float sample){
     this.sample = sample;
     return this;
@@ -123,6 +489,18 @@ public abstract class Config {
     return sample;
   }
   
+  /**
+   * Sets the random number generator of the training threads
+   */
+  public Config setRandom(FastRandom.Type random){
+    this.random = random;
+    return this;
+  }
+  
+  public FastRandom.Type getRandom(){
+    return random;
+  }
+  
   public Config setAlpha(float alpha){
     this.alpha = alpha;
     return this;
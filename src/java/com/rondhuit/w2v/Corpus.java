@@ -29,11 +29,13 @@ import com.rondhuit.w2v.Word2vec.VocabWordComparator;
 public abstract class Corpus {
 
   protected Config config;
-  protected int trainWords = 0;
+  protected long trainWords = 0;
   protected int vocabSize;
   protected int vocabMaxSize = 1000;
   protected VocabWord[] vocab;
-  protected Map<String, Integer> vocabIndexMap;
+  protected Map<String, Integer> vocabIndexMap;    // only while the vocabulary is learnt
+  protected VocabDictionary dictionary;
+  protected float[] keepProbabilities;
   protected boolean eoc = true;    // end of corpus                                                                                           
 
   public Corpus(Config config) throws IOException {
@@ -45,6 +47,8 @@ public abstract class Corpus {
     vocabSize = cloneSrc.vocabSize;
     vocab = cloneSrc.vocab;
     vocabIndexMap = cloneSrc.vocabIndexMap;
+    dictionary = cloneSrc.dictionary;
+    keepProbabilities = cloneSrc.keepProbabilities;
   }
 
   public boolean endOfCorpus(){
@@ -54,6 +58,7 @@ public abstract class Corpus {
   public void learnVocab()  throws IOException {
     vocab = new VocabWord[vocabMaxSize];
     vocabIndexMap = new HashMap<String, Integer>();
+    dictionary = null;
     vocabSize = 0;
   }
 
@@ -68,7 +73,7 @@ public abstract class Corpus {
 
     // Reallocate memory if needed                                                                                                            
     if(vocabSize + 2 >= vocabMaxSize){
-      vocabMaxSize += 1000;
+      vocabMaxSize += Math.max(vocabMaxSize, 1000);
       VocabWord[] temp = new VocabWord[vocabMaxSize];
       System.arraycopy(vocab, 0, temp, 0, vocabSize);
       vocab = temp;
@@ -77,7 +82,7 @@ public abstract class Corpus {
     return vocabSize - 1;
   }
 
-  public int getTrainWords(){
+  public long getTrainWords(){
     return trainWords;
   }
 
@@ -89,8 +94,18 @@ public abstract class Corpus {
     return vocab;
   }
 
-  public Map<String, Integer> getVocabIndexMap(){
-    return vocabIndexMap;
+  /**
+   * Returns the dictionary of the sorted vocabulary, or null while the vocabulary is learnt
+   */
+  public VocabDictionary getVocabDictionary(){
+    return dictionary;
+  }
+
+  /**
+   * Returns the probability to keep each word in the subsampling, or null if the subsampling is disabled
+   */
+  public float[] getKeepProbabilities(){
+    return keepProbabilities;
   }
 
   /**                                                                                                                                         
@@ -100,6 +115,22 @@ public abstract class Corpus {
     eoc = false;
   }
 
+  /**
+   * Returns the number of chunks that the corpus is divided into for {@link ChunkScheduler}.
+   * The default is 1, i.e. the corpus can only be read as a whole.
+   */
+  public int getNumChunks(int numThreads){
+    return 1;
+  }
+
+  /**
+   * Positions the corpus at the start of the chunk. {@link #readWordIndex()} returns -2
+   * at the end of the chunk.
+   */
+  public void seekChunk(int chunk, int numChunks) throws IOException {
+    rewind(numChunks, chunk);
+  }
+
   /**
    * 
    * @return -3 if end of sentence, -2 if end of corpus, -1 if word not found or index value of the word
@@ -140,62 +171,193 @@ public abstract class Corpus {
    * @return
    */
   int searchVocab(String word){
+    if(dictionary != null) return dictionary.get(word);
     Integer pos = vocabIndexMap.get(word);
     return pos == null ? -1 : pos.intValue();
   }
 
   /**
-   * Sorts the vocabulary by frequency using word counts
+   * Returns position of the word in the slice of the chars; if the word is not found, returns -1
    */
-  void sortVocab(){
-    List<VocabWord> list = new ArrayList<VocabWord>(vocabSize);
-    for(int i = 0; i < vocabSize; i++){
+  protected int searchVocab(char[] chars, int off, int len){
+    if(dictionary != null) return dictionary.get(chars, off, len);
+    return searchVocab(new String(chars, off, len));
+  }
+
+  /**
+   * Takes over the sorted vocabulary of a checkpoint instead of learning it from the corpus.
+   * The Huffman codes of the words are expected to be restored as well.
+   * @param trainWords the number of words to train in an iteration, which is less than
+   * the sum of the counts of the words after {@link #updateVocab()}
+   */
+  public void restoreVocab(VocabWord[] words, long trainWords) throws IOException {
+    vocab = words;
+    vocabSize = words.length;
+    vocabMaxSize = vocabSize;
+    buildDictionary();
+    computeKeepProbabilities(this.trainWords);
+    this.trainWords = trainWords;
+  }
+
+  /**
+   * Counts the words of the corpus, e.g. the documents which have been added since the restored
+   * vocabulary was learned, and adds the counts to the vocabulary. New words which appear
+   * at least min-count times are added and the vocabulary is sorted again.
+   * After this, {@link #getTrainWords()} returns the number of the words in the corpus.
+   * @return the new position of each word of the restored vocabulary
+   */
+  public int[] updateVocab() throws IOException {
+    final int oldSize = vocabSize;
+    final long[] counts = new long[oldSize];
+    final Map<String, Long> newCounts = new HashMap<String, Long>();
+    seekChunk(0, 1);
+    while(true){
+      String word = nextWord();
+      if(word == null && eoc) break;
+      int idx = searchVocab(word);
+      if(idx >= 0){
+        counts[idx]++;
+      }
+      else if(word != null){
+        Long count = newCounts.get(word);
+        newCounts.put(word, count == null ? 1L : count + 1);
+      }
+    }
+
+    List<VocabWord> list = new ArrayList<VocabWord>(oldSize + newCounts.size());
+    long updateWords = 0;
+    for(int i = 0; i < oldSize; i++){
+      vocab[i].cn += counts[i];
+      updateWords += counts[i];
       list.add(vocab[i]);
     }
+    for(Map.Entry<String, Long> e : newCounts.entrySet()){
+      if(e.getValue() >= config.getMinCount()){
+        VocabWord vw = new VocabWord(e.getKey());
+        vw.cn = e.getValue();
+        updateWords += vw.cn;
+        list.add(vw);
+      }
+    }
     Collections.sort(list, new VocabWordComparator());
+
+    final int[] rows = new int[oldSize];
+    final VocabDictionary oldDictionary = dictionary;
+    vocabSize = list.size();
+    vocabMaxSize = vocabSize;
+    vocab = list.toArray(new VocabWord[vocabSize]);
+    buildDictionary();
+    for(int i = 0; i < vocabSize; i++){
+      int old = oldDictionary.get(vocab[i].word);
+      if(old >= 0) rows[old] = i;
+    }
+    computeKeepProbabilities(trainWords);
+    trainWords = updateWords;
+    return rows;
+  }
+
+  /**
+   * Sorts the vocabulary by frequency using word counts
+   */
+  void sortVocab(){
+    final int[] order = ParallelSort.sortByCount(vocab, vocabSize, config.getNumThreads());
     
-    // re-build vocabIndexMap
-    vocabIndexMap.clear();
-    final int size = vocabSize;
-    trainWords = 0;
+    // Words occuring less than min_count times will be discarded from the vocab
+    int size = 0;
+    while(size < vocabSize && vocab[order[size]].cn >= config.getMinCount()){
+      size++;
+    }
+
+    VocabWord[] sorted = new VocabWord[size];
     for(int i = 0; i < size; i++){
-      // Words occuring less than min_count times will be discarded from the vocab
-      if(list.get(i).cn < config.getMinCount()){
-        vocabSize--;
-      }
-      else{
-        // Hash will be re-computed, as after the sorting it is not actual
-        setVocabIndexMap(list.get(i), i);
-      }
+      sorted[i] = new VocabWord(vocab[order[i]].word);
+      sorted[i].cn = vocab[order[i]].cn;
     }
+    vocab = sorted;
+    vocabSize = size;
+    // the dictionary is re-built, as after the sorting the map is not actual
+    buildDictionary();
+    computeKeepProbabilities();
+  }
+
+  /**
+   * The subsampling randomly discards frequent words while keeping the ranking same.
+   * The probability depends only on the word, so it is computed once after the vocabulary is sorted.
+   */
+  void computeKeepProbabilities(){
+    computeKeepProbabilities(trainWords);
+  }
 
-    vocab = new VocabWord[vocabSize];
+  /**
+   * @param totalWords the sum of the counts of the words
+   */
+  void computeKeepProbabilities(long totalWords){
+    final float sample = config.getSample();
+    if(sample <= 0){
+      keepProbabilities = null;
+      return;
+    }
+    final double threshold = sample * (double)totalWords;
+    keepProbabilities = new float[vocabSize];
     for(int i = 0; i < vocabSize; i++){
-      vocab[i] = new VocabWord(list.get(i).word);
-      vocab[i].cn = list.get(i).cn;
+      keepProbabilities[i] = (float)((Math.sqrt(vocab[i].cn / threshold) + 1) * threshold / vocab[i].cn);
     }
   }
   
-  void setVocabIndexMap(VocabWord src, int pos){
-    vocabIndexMap.put(src.word, pos);
-    trainWords += src.cn;
+  /**
+   * Builds the dictionary of the sorted vocabulary in place of the map and sums up the counts of the words
+   */
+  void buildDictionary(){
+    dictionary = new VocabDictionary(vocab, vocabSize);
+    vocabIndexMap = null;
+    trainWords = 0;
+    for(int i = 0; i < vocabSize; i++){
+      trainWords += vocab[i].cn;
+    }
+  }
+
+  /**
+   * Returns the total length of the Huffman codes of {@link #createBinaryTree()} without building the tree.
+   * The nodes are merged in the same order, and as the code of a word has a bit for every inner node above it,
+   * the total is the sum of the words under each inner node.
+   */
+  long getTotalCodeLength(){
+    final int inner = Math.max(vocabSize - 1, 0);
+    long[] count = new long[inner];
+    int[] words = new int[inner];
+    int pos1 = vocabSize - 1;
+    int pos2 = 0;
+    long total = 0;
+    for(int i = 0; i < inner; i++){
+      for(int k = 0; k < 2; k++){
+        // a word is taken unless an inner node which has been merged already has a smaller or equal count
+        if(pos1 >= 0 && (pos2 == i || vocab[pos1].cn < count[pos2])){
+          count[i] += vocab[pos1--].cn;
+          words[i]++;
+        }
+        else{
+          count[i] += count[pos2];
+          words[i] += words[pos2++];
+        }
+      }
+      total += words[i];
+    }
+    return total;
   }
 
   /**
    * Create binary Huffman tree using the word counts. 
    * Frequent words will have short uniqe binary codes
    */
-  void createBinaryTree() {
-    int[] point = new int[VocabWord.MAX_CODE_LENGTH];
-    char[] code = new char[VocabWord.MAX_CODE_LENGTH];
-    int[] count = new int[vocabSize * 2 + 1];
+  HuffmanTree createBinaryTree() {
+    long[] count = new long[vocabSize * 2 + 1];
     char[] binary = new char[vocabSize * 2 + 1];
     int[] parentNode = new int[vocabSize * 2 + 1];
     
     for(int i = 0; i < vocabSize; i++)
       count[i] = vocab[i].cn;
     for(int i = vocabSize; i < vocabSize * 2; i++)
-      count[i] = Integer.MAX_VALUE;
+      count[i] = Long.MAX_VALUE;
     int pos1 = vocabSize - 1;
     int pos2 = vocabSize;
     // Following algorithm constructs the Huffman tree by adding one node at a time
@@ -231,23 +393,25 @@ public abstract class Corpus {
       parentNode[min2i] = vocabSize + i;
       binary[min2i] = 1;
     }
-    // Now assign binary code to each vocabulary word
+    // The code length of a word is the depth of its node, and a parent comes after its children
+    final int root = vocabSize * 2 - 2;
+    int[] depth = new int[vocabSize * 2];
+    for(int k = root - 1; k >= 0; k--)
+      depth[k] = depth[parentNode[k]] + 1;
+    int[] offsets = new int[vocabSize + 1];
+    for(int j = 0; j < vocabSize; j++)
+      offsets[j + 1] = offsets[j] + depth[j];
+    // Now assign binary code to each vocabulary word, from the leaf up to the root
+    int[] points = new int[offsets[vocabSize]];
+    long[] codes = new long[(offsets[vocabSize] + 63) >>> 6];
     for(int j = 0; j < vocabSize; j++){
-      int k = j;
-      int i = 0;
-      while (true) {
-        code[i] = binary[k];
-        point[i] = k;
-        i++;
-        k = parentNode[k];
-        if(k == vocabSize * 2 - 2) break;
-      }
-      vocab[j].codelen = i;
-      vocab[j].point[0] = vocabSize - 2;
-      for(k = 0; k < i; k++) {
-        vocab[j].code[i - k - 1] = code[k];
-        vocab[j].point[i - k] = point[k] - vocabSize;
+      int p = offsets[j + 1];
+      for(int k = j; k != root; k = parentNode[k]){
+        p--;
+        points[p] = parentNode[k] - vocabSize;
+        if(binary[k] != 0) codes[p >>> 6] |= 1L << p;
       }
     }
+    return new HuffmanTree(offsets, points, codes);
   }
 }
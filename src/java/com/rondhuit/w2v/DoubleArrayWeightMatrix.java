@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * {@link WeightMatrix} backed by a double array. This is the original storage of this tool.
+ */
+public class DoubleArrayWeightMatrix extends WeightMatrix {
+
+  private final double[] w;
+
+  public DoubleArrayWeightMatrix(int rows, int columns, VectorKernel kernel){
+    super(rows, columns, kernel);
+    w = new double[alignedSize(rows, columns)];
+  }
+
+  @Override
+  public double get(int row, int column){
+    return w[row * columns + column];
+  }
+
+  @Override
+  public void set(int row, int column, double value){
+    w[row * columns + column] = value;
+  }
+
+  @Override
+  public double dot(int row, double[] x){
+    return kernel.dot(x, w, row * columns, columns);
+  }
+
+  @Override
+  public void accumulate(int row, double g, double[] y){
+    kernel.accumulate(w, row * columns, g, y, columns);
+  }
+
+  @Override
+  public void update(int row, double g, double[] x){
+    kernel.update(w, row * columns, g, x, columns);
+  }
+
+  @Override
+  public void copyRow(int row, double[] y){
+    System.arraycopy(w, row * columns, y, 0, columns);
+  }
+}
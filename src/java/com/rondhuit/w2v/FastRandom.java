@@ -0,0 +1,108 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * Per-thread pseudo random number generator of the training threads. It is not thread safe.
+ */
+public abstract class FastRandom {
+
+  /**
+   * Generator implementations
+   */
+  public static enum Type {
+    /** the linear congruential generator of the original C tool. the lower bits are weak */
+    LCG,
+    /** xorshift64* */
+    XORSHIFT,
+    /** SplitMix64 */
+    SPLITMIX
+  }
+
+  public static FastRandom create(Type type, long seed){
+    switch(type){
+    case XORSHIFT:
+      return new XorShiftRandom(seed);
+    case SPLITMIX:
+      return new SplitMixRandom(seed);
+    default:
+      return new LcgRandom(seed);
+    }
+  }
+
+  /**
+   * Returns the next 64 bits random value
+   */
+  public abstract long next();
+
+  /**
+   * Linear congruential generator which is the same as {@link Word2vec#nextRandom(long)}
+   */
+  static final class LcgRandom extends FastRandom {
+    private long state;
+
+    LcgRandom(long seed){
+      state = seed;
+    }
+
+    @Override
+    public long next(){
+      state = state * 25214903917L + 11;
+      return state;
+    }
+  }
+
+  static final class XorShiftRandom extends FastRandom {
+    private long state;
+
+    XorShiftRandom(long seed){
+      // xorshift must not start from zero
+      state = SplitMixRandom.mix(seed + 0x9E3779B97F4A7C15L);
+      if(state == 0) state = 0x9E3779B97F4A7C15L;
+    }
+
+    @Override
+    public long next(){
+      state ^= state >>> 12;
+      state ^= state << 25;
+      state ^= state >>> 27;
+      return state * 2685821657736338717L;
+    }
+  }
+
+  static final class SplitMixRandom extends FastRandom {
+    private long state;
+
+    SplitMixRandom(long seed){
+      state = seed;
+    }
+
+    @Override
+    public long next(){
+      state += 0x9E3779B97F4A7C15L;
+      return mix(state);
+    }
+
+    static long mix(long z){
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * The Huffman codes of the vocabulary for the hierarchical softmax, flattened into arrays.
+ * The inner nodes on the path of word w are points[offsets[w]] to points[offsets[w + 1] - 1]
+ * from the root down, and the branch taken at points[p] is the bit p of codes.
+ */
+final class HuffmanTree {
+
+  final int[] offsets;
+  final int[] points;
+  final long[] codes;
+
+  HuffmanTree(int[] offsets, int[] points, long[] codes){
+    this.offsets = offsets;
+    this.points = points;
+    this.codes = codes;
+  }
+
+  int getCodeLength(int word){
+    return offsets[word + 1] - offsets[word];
+  }
+
+  int getPoint(int p){
+    return points[p];
+  }
+
+  /**
+   * Returns the branch, 0 or 1, taken at the inner node points[p]
+   */
+  int getCode(int p){
+    return (int)(codes[p >>> 6] >>> p) & 1;
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the memory which the training of the models of the configs needs for the learnt vocabulary
+ * of the corpus, before any of it is allocated. The sizes of the arrays are exact, while the vocabulary
+ * objects are estimated for a 64 bit JVM with compressed references. The mapped weight matrices are
+ * reported but not counted, since the OS pages them in and out of the files.
+ * If the footprint exceeds the memory budget of the first config, or the heap part of it exceeds the
+ * max heap when there is no budget, the training is refused, or the min-count is raised until the
+ * vocabulary fits if the config says so.
+ */
+final class MemoryPreflight {
+
+  static final long MB = 1024 * 1024;
+
+  /**
+   * The bytes of a VocabWord, the String and the header of its chars, the reference to them, and the offset
+   * of the word and up to 4 slots of the table in the {@link VocabDictionary}
+   */
+  static final int WORD_OVERHEAD = 24 + 24 + 16 + 4 + 4 + 16;
+
+  private static Logger logger = LoggerFactory.getLogger(MemoryPreflight.class);
+
+  private final Corpus corpus;
+  private final Config[] configs;
+
+  MemoryPreflight(Corpus corpus, Config... configs){
+    this.corpus = corpus;
+    this.configs = configs;
+  }
+
+  /**
+   * Checks the footprint of the vocabulary of the corpus and shrinks the vocabulary if needed and allowed
+   * @throws IllegalArgumentException if the models do not fit in the memory
+   */
+  void check(){
+    final Config config = configs[0];
+    final long budget = config.getMemoryBudget() * MB;
+    long codeLength = codeLength();
+    Map<String, Long> footprint = footprint(corpus.getVocabSize(), codeLength);
+    long total = total(footprint, budget > 0);
+    log(footprint, budget > 0);
+    final long limit = budget > 0 ? budget : Runtime.getRuntime().maxMemory();
+    if(total <= limit) return;
+
+    final String what = budget > 0 ? "the memory budget" : "the max heap";
+    if(!config.isMemoryFit())
+      throw new IllegalArgumentException(String.format("the models need %d MB, more than %d MB of %s. " +
+          "raise it, or let the min-count be raised to fit", total / MB, limit / MB, what));
+
+    final int minCount = config.getMinCount(), vocabSize = corpus.getVocabSize();
+    while(total > limit){
+      // the exact codes may be longer than the estimate of fittingWords()
+      final int fits = Math.min(fittingWords(limit, budget > 0, codeLength), corpus.getVocabSize() - 1);
+      if(fits <= 0)
+        throw new IllegalArgumentException(String.format("the models need %d MB without any words, more than %d MB of %s",
+            total(footprint(0, 0), budget > 0) / MB, limit / MB, what));
+      // all the words of the same count are dropped together, as the min-count drops them
+      final long cn = corpus.getVocab()[fits].cn + 1;
+      config.setMinCount((int)Math.min(cn, Integer.MAX_VALUE));
+      corpus.sortVocab();
+      codeLength = codeLength();
+      footprint = footprint(corpus.getVocabSize(), codeLength);
+      total = total(footprint, budget > 0);
+    }
+    logger.info("Raised the min-count from {} to {} to fit in {} MB of {}: the vocabulary has {} words instead of {}, and the models need {} MB\n",
+        new Object[]{ minCount, config.getMinCount(), limit / MB, what, corpus.getVocabSize(), vocabSize, total / MB });
+    log(footprint, budget > 0);
+  }
+
+  /**
+   * Returns the number of the most frequent words which fit in the limit, with the code length of
+   * the current vocabulary per word, which does not grow when the rare words are dropped
+   * @param totalCodeLength the {@link #codeLength()} of the current vocabulary
+   */
+  int fittingWords(long limit, boolean offHeap, long totalCodeLength){
+    final int vocabSize = corpus.getVocabSize();
+    final double codeLength = vocabSize > 0 ? totalCodeLength / (double)vocabSize : 0;
+    int low = 0, high = vocabSize;
+    while(low < high){
+      final int mid = (int)(((long)low + high + 1) / 2);
+      if(total(footprint(mid, (long)Math.ceil(codeLength * mid)), offHeap) <= limit) low = mid;
+      else high = mid - 1;
+    }
+    return low;
+  }
+
+  /**
+   * Returns the length of all the Huffman codes of the vocabulary, or 0 if no model uses the hierarchical softmax
+   */
+  long codeLength(){
+    for(Config config : configs){
+      if(config.useHierarchicalSoftmax()) return corpus.getTotalCodeLength();
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the bytes of the parts of the models, the heap parts in the keys without "(direct)" or "(mapped)"
+   */
+  Map<String, Long> footprint(int vocabSize, long codeLength){
+    Map<String, Long> footprint = new LinkedHashMap<String, Long>();
+    long words = 0;
+    final VocabWord[] vocab = corpus.getVocab();
+    for(int i = 0; i < vocabSize; i++){
+      // the chars of the String and the UTF-8 bytes in the dictionary
+      words += WORD_OVERHEAD + (vocab[i].word == null ? 0 : 2 * vocab[i].word.length() + VocabDictionary.encodedLength(vocab[i].word));
+    }
+    // the keep probabilities of the subsampling
+    add(footprint, "vocabulary", words + 4L * vocabSize);
+
+    // the tuning may choose up to its max threads, for which the hot rows are copied
+    final long numThreads = configs[0].getAutoTune() > 0 ? ThreadTuner.maxThreads(configs[0]) : configs[0].getNumThreads();
+    for(int m = 0; m < configs.length; m++){
+      final Config config = configs[m];
+      final String model = configs.length > 1 ? "model " + m + " " : "";
+      final int matrices = 1 + (config.useHierarchicalSoftmax() ? 1 : 0) + (config.getNegative() > 0 ? 1 : 0);
+      final long weights = matrixBytes(config, vocabSize);
+      switch(config.getWeightStorage()){
+      case DIRECT:
+        add(footprint, model + "weights (direct)", matrices * weights);
+        break;
+      case MAPPED:
+        add(footprint, model + "weights (mapped)", matrices * weights);
+        break;
+      default:
+        add(footprint, model + "weights", matrices * weights);
+      }
+      if(configs[0].getAutoTune() > 0){
+        // the bursts of the tuning train a copy of the weights, in direct buffers instead of the mapped files
+        add(footprint, model + (config.getWeightStorage() == WeightMatrix.Storage.HEAP ? "tuning weights" : "tuning weights (direct)"),
+            matrices * weights);
+      }
+      if(config.getOptimizer() == WeightMatrix.Optimizer.ADAGRAD){
+        // the bursts of the tuning train a copy of the sums as well
+        add(footprint, model + "AdaGrad sums", (configs[0].getAutoTune() > 0 ? 2 : 1) * matrices * 4L * vocabSize);
+      }
+      if(config.getHotRows() > 0){
+        // a local copy and a snapshot of syn0 and syn1neg per thread
+        final long hotRows = Math.min(config.getHotRows(), vocabSize);
+        add(footprint, model + "hot rows", numThreads * (config.getNegative() > 0 ? 2 : 1)
+            * 2 * 8 * hotRows * config.getLayer1Size());
+      }
+      if(config.getNegative() > 0){
+        if(config.getNegativeSampler() == NegativeSampler.Type.TABLE)
+          add(footprint, model + "unigram table", 4L * UnigramTableSampler.TABLE_SIZE);
+        else
+          add(footprint, model + "alias table", 8L * vocabSize);
+      }
+    }
+    if(codeLength > 0){
+      // the offsets, the points and the bits of the codes
+      add(footprint, "Huffman codes", 4L * (vocabSize + 1) + 4 * codeLength + 8 * ((codeLength + 63) / 64));
+    }
+    return footprint;
+  }
+
+  static long matrixBytes(Config config, int vocabSize){
+    final long elements = (long)vocabSize * config.getLayer1Size();
+    if(config.getWeightStorage() != WeightMatrix.Storage.HEAP) return 4 * elements;
+    // the heap arrays are padded to 128 elements
+    final long aligned = (elements + 127) / 128 * 128;
+    return (config.useSinglePrecision() ? 4 : 8) * aligned;
+  }
+
+  private static void add(Map<String, Long> footprint, String part, long bytes){
+    final Long sum = footprint.get(part);
+    footprint.put(part, sum == null ? bytes : sum + bytes);
+  }
+
+  /**
+   * Returns the bytes of the parts which are counted, all but the mapped ones with a budget or only the heap parts without
+   */
+  static long total(Map<String, Long> footprint, boolean offHeap){
+    long total = 0;
+    for(Map.Entry<String, Long> e : footprint.entrySet()){
+      if(e.getKey().endsWith("(mapped)")) continue;
+      if(!offHeap && e.getKey().endsWith("(direct)")) continue;
+      total += e.getValue();
+    }
+    return total;
+  }
+
+  private void log(Map<String, Long> footprint, boolean offHeap){
+    StringBuilder sb = new StringBuilder();
+    for(Map.Entry<String, Long> e : footprint.entrySet()){
+      sb.append(String.format("%n  %-24s %,12d KB", e.getKey(), e.getValue() / 1024));
+    }
+    logger.info("Memory for {} words: {} MB{}\n", new Object[]{ corpus.getVocabSize(), total(footprint, offHeap) / MB, sb });
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Trains several models on a single pass over the corpus. The vocabulary is learnt once and every
+ * sentence which has been read is trained on each model, so the models of a hyperparameter sweep
+ * share the cost of reading and analyzing the corpus. The corpus, the subsampling and the threads
+ * come from the first config. The other configs choose the network of their models, that is
+ * the size, the window, the output layers, the architecture, the learning rate and the output file.
+ */
+public class MultiModelTrainer {
+
+  private static Logger logger = LoggerFactory.getLogger(MultiModelTrainer.class);
+
+  private final Word2vec[] models;
+
+  public MultiModelTrainer(Config... configs){
+    if(configs.length == 0)
+      throw new IllegalArgumentException("no models to train");
+    models = new Word2vec[configs.length];
+    for(int m = 0; m < configs.length; m++){
+      final Config config = configs[m];
+      if(config.getIter() != configs[0].getIter())
+        throw new IllegalArgumentException(String.format("the models have different iterations: %d and %d",
+            configs[0].getIter(), config.getIter()));
+      if(config.getTimeBudget() != configs[0].getTimeBudget())
+        throw new IllegalArgumentException("the models have different time budgets");
+      if(config.getCheckpointFile() != null || config.getSharedDir() != null || config.getCoordinatorPort() != 0)
+        throw new IllegalArgumentException("checkpoints and distributed training of several models are not supported");
+      models[m] = new Word2vec(config);
+    }
+  }
+
+  public Word2vec[] getModels(){
+    return models;
+  }
+
+  public void trainModels(CorpusFactory corpusFactory) throws IOException {
+    final Word2vec lead = models[0];
+    Corpus corpus = corpusFactory.create(lead.getConfig());
+    boolean started = false;
+    try{
+      corpus.learnVocab();
+      corpus.sortVocab();
+      logger.info("Vocab size: {}\n", corpus.getVocabSize());
+      logger.info("Words in train file: {}\n", corpus.getTrainWords());
+      logger.info("Training {} models\n", models.length);
+      Config[] configs = new Config[models.length];
+      for(int m = 0; m < models.length; m++){
+        configs[m] = models[m].getConfig();
+      }
+      new MemoryPreflight(corpus, configs).check();
+      final int vocabSize = corpus.getVocabSize();
+
+      lead.initNet(corpus);
+      lead.startingAlpha = lead.getConfig().getAlpha();
+      for(int m = 1; m < models.length; m++){
+        final Word2vec model = models[m];
+        final Config config = model.getConfig();
+        model.createNet(vocabSize);
+        model.initSyn0(vocabSize);
+        model.createBinaryTree(corpus);
+        model.startingAlpha = model.alpha = config.getAlpha();
+        if(config.getNegative() > 0)
+          model.sampler = NegativeSampler.create(config, corpus.getVocab(), vocabSize);
+      }
+      lead.coModels = Arrays.copyOfRange(models, 1, models.length);
+      started = true;
+    }
+    finally{
+      if(!started) corpus.close();
+    }
+    lead.train(corpusFactory, corpus, null);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * Draws the negative samples from the unigram distribution raised to the 3/4rd power.
+ */
+public abstract class NegativeSampler {
+
+  static final double POWER = 0.75;
+
+  /**
+   * Sampler implementations
+   */
+  public static enum Type {
+    /** Walker's alias method. O(vocabSize) memory and O(1) per sample */
+    ALIAS,
+    /** the table of the original C tool which has 100M entries regardless of the vocabulary size */
+    TABLE
+  }
+
+  public static NegativeSampler create(Config config, VocabWord[] vocab, int vocabSize){
+    if(config.getNegativeSampler() == Type.TABLE)
+      return new UnigramTableSampler(vocab, vocabSize);
+    else
+      return new AliasSampler(vocab, vocabSize);
+  }
+
+  /**
+   * Returns the index of a word
+   * @param random the random value that has just been generated by the training thread
+   */
+  public abstract int sample(long random);
+
+  /**
+   * Returns the word which replaces the end of sentence (word 0) drawn by {@link #sample(long)}, which is
+   * uniform over the other words like the C tool where the random value is unsigned
+   */
+  static int replaceEndOfSentence(long random, int vocabSize){
+    // the unsigned remainder of the 64 bits value
+    final long n = vocabSize - 1;
+    final long r = ((random >>> 1) % n * 2 + (random & 1)) % n;
+    return (int)r + 1;
+  }
+}
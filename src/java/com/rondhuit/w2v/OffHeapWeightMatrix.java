@@ -0,0 +1,150 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.rondhuit.commons.IOUtils;
+
+/**
+ * {@link WeightMatrix} stored in single precision outside of the Java heap, either in direct buffers
+ * or in a memory mapped file. A buffer cannot be larger than 2GB, so the rows are split into segments
+ * and the number of elements is only limited by the (long) address space.
+ */
+public class OffHeapWeightMatrix extends WeightMatrix {
+
+  static final int MAX_SEGMENT_BYTES   = Integer.MAX_VALUE;
+  static final int PAGE_SIZE           = 4096;
+
+  private final int segmentShift, segmentMask;
+  private final FloatBuffer[] segments;
+
+  /**
+   * @param file the file to be mapped. direct buffers are allocated if null
+   * @param preTouch touches every page in advance so that the training threads don't page-fault
+   */
+  public OffHeapWeightMatrix(int rows, int columns, VectorKernel kernel, File file, boolean preTouch) throws IOException {
+    this(rows, columns, kernel, file, preTouch, false);
+  }
+
+  /**
+   * @param attach keeps the weights of the existing file, which other processes may be training
+   */
+  public OffHeapWeightMatrix(int rows, int columns, VectorKernel kernel, File file, boolean preTouch, boolean attach) throws IOException {
+    super(rows, columns, kernel);
+    final int rowBytes = columns * 4;
+    final int rowsPerSegment = Integer.highestOneBit(MAX_SEGMENT_BYTES / rowBytes);
+    segmentShift = Integer.numberOfTrailingZeros(rowsPerSegment);
+    segmentMask = rowsPerSegment - 1;
+    segments = new FloatBuffer[(rows + rowsPerSegment - 1) / rowsPerSegment];
+
+    RandomAccessFile raf = null;
+    try{
+      FileChannel channel = null;
+      if(file != null){
+        raf = new RandomAccessFile(file, "rw");
+        if(attach){
+          if(raf.length() != (long)rows * rowBytes)
+            throw new IOException(String.format("%s does not have %d x %d weights", file, rows, columns));
+        }
+        else{
+          // truncate first so that the weights start from zero as well as direct buffers do
+          raf.setLength(0);
+          raf.setLength((long)rows * rowBytes);
+        }
+        channel = raf.getChannel();
+      }
+      for(int i = 0; i < segments.length; i++){
+        final int segmentRows = Math.min(rowsPerSegment, rows - i * rowsPerSegment);
+        final int bytes = segmentRows * rowBytes;
+        ByteBuffer bb;
+        if(channel != null){
+          MappedByteBuffer mbb = channel.map(FileChannel.MapMode.READ_WRITE, (long)i * rowsPerSegment * rowBytes, bytes);
+          if(preTouch) mbb.load();
+          bb = mbb;
+        }
+        else{
+          bb = ByteBuffer.allocateDirect(bytes);
+        }
+        bb.order(ByteOrder.nativeOrder());
+        // writing back what has been read would undo the updates of the other processes in between,
+        // so the pages of an attached file are only read by load()
+        if(preTouch && !attach) touch(bb);
+        segments[i] = bb.asFloatBuffer();
+      }
+    }
+    finally{
+      // the mappings remain valid after the channel has been closed
+      IOUtils.closeQuietly(raf);
+    }
+  }
+
+  static void touch(ByteBuffer bb){
+    for(int i = 0; i < bb.capacity(); i += PAGE_SIZE){
+      bb.put(i, bb.get(i));
+    }
+  }
+
+  private FloatBuffer segment(int row){
+    return segments[row >>> segmentShift];
+  }
+
+  private int offset(int row){
+    return (row & segmentMask) * columns;
+  }
+
+  @Override
+  public double get(int row, int column){
+    return segment(row).get(offset(row) + column);
+  }
+
+  @Override
+  public void set(int row, int column, double value){
+    segment(row).put(offset(row) + column, (float)value);
+  }
+
+  @Override
+  public double dot(int row, double[] x){
+    return kernel.dot(x, segment(row), offset(row), columns);
+  }
+
+  @Override
+  public void accumulate(int row, double g, double[] y){
+    kernel.accumulate(segment(row), offset(row), g, y, columns);
+  }
+
+  @Override
+  public void update(int row, double g, double[] x){
+    kernel.update(segment(row), offset(row), g, x, columns);
+  }
+
+  @Override
+  public void copyRow(int row, double[] y){
+    final FloatBuffer w = segment(row);
+    final int l = offset(row);
+    for(int c = 0; c < columns; c++) y[c] = w.get(c + l);
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts primitive arrays on several threads. The array is divided into runs which are sorted
+ * by {@link Arrays#sort(long[], int, int)} in parallel, and then the pairs of the runs are merged
+ * in parallel until one run is left.
+ */
+final class ParallelSort {
+
+  /** the runs are not shorter than this, since a thread is not worth it for a small run */
+  static final int MIN_RUN             = 64 * 1024;
+
+  private ParallelSort(){
+  }
+
+  /**
+   * Returns the positions of the words in the descending order of the counts. The words of the same
+   * count stay in the order of the positions like {@link Word2vec.VocabWordComparator} with a stable sort.
+   * The count and the position are packed into a long, or the boxed positions are sorted
+   * if the counts are too large to pack.
+   */
+  static int[] sortByCount(final VocabWord[] words, int size, int numThreads){
+    long max = 0;
+    for(int i = 0; i < size; i++){
+      max = Math.max(max, words[i].cn);
+    }
+    final int bits = 32 - Integer.numberOfLeadingZeros(size);
+    final int[] order = new int[size];
+    if(max >>> (63 - bits) == 0){
+      final long[] keys = new long[size];
+      for(int i = 0; i < size; i++){
+        keys[i] = (max - words[i].cn) << bits | i;
+      }
+      sort(keys, numThreads);
+      final long mask = (1L << bits) - 1;
+      for(int i = 0; i < size; i++){
+        order[i] = (int)(keys[i] & mask);
+      }
+    }
+    else{
+      Integer[] boxed = new Integer[size];
+      for(int i = 0; i < size; i++){
+        boxed[i] = i;
+      }
+      Arrays.sort(boxed, new Comparator<Integer>(){
+        @Override
+        public int compare(Integer o1, Integer o2){
+          final long c1 = words[o1].cn, c2 = words[o2].cn;
+          return c2 < c1 ? -1 : c2 == c1 ? 0 : 1;
+        }
+      });
+      for(int i = 0; i < size; i++){
+        order[i] = boxed[i];
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Sorts the array in the ascending order
+   */
+  static void sort(long[] a, int numThreads){
+    final int runs = Math.min(numThreads, a.length / MIN_RUN);
+    if(runs <= 1){
+      Arrays.sort(a);
+      return;
+    }
+    final int[] bounds = new int[runs + 1];
+    for(int r = 0; r <= runs; r++){
+      bounds[r] = (int)((long)a.length * r / runs);
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(runs, new Word2vec.DaemonThreadFactory("w2v-sort-"));
+    try{
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      for(int r = 0; r < runs; r++){
+        final long[] src = a;
+        final int from = bounds[r], to = bounds[r + 1];
+        tasks.add(new Callable<Void>(){
+          @Override
+          public Void call(){
+            Arrays.sort(src, from, to);
+            return null;
+          }
+        });
+      }
+      runAll(executor, tasks);
+
+      long[] src = a, dst = new long[a.length];
+      for(int width = 1; width < runs; width *= 2){
+        tasks.clear();
+        for(int r = 0; r < runs; r += width * 2){
+          final long[] s = src, d = dst;
+          final int from = bounds[r], mid = bounds[Math.min(r + width, runs)], to = bounds[Math.min(r + width * 2, runs)];
+          tasks.add(new Callable<Void>(){
+            @Override
+            public Void call(){
+              merge(s, from, mid, to, d);
+              return null;
+            }
+          });
+        }
+        runAll(executor, tasks);
+        long[] t = src;
+        src = dst;
+        dst = t;
+      }
+      if(src != a){
+        System.arraycopy(src, 0, a, 0, a.length);
+      }
+    }
+    finally{
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Merges the sorted ranges [from, mid) and [mid, to) of src into the same range of dst
+   */
+  static void merge(long[] src, int from, int mid, int to, long[] dst){
+    int i = from, j = mid, k = from;
+    while(i < mid && j < to){
+      dst[k++] = src[j] < src[i] ? src[j++] : src[i++];
+    }
+    System.arraycopy(src, i, dst, k, mid - i);
+    System.arraycopy(src, j, dst, k + mid - i, to - j);
+  }
+
+  /**
+   * Runs the tasks and waits for all of them. The sort does not take long, so the interruption
+   * is kept for the caller instead of leaving the array half sorted.
+   */
+  private static void runAll(ExecutorService executor, List<Callable<Void>> tasks){
+    List<Future<Void>> futures = new ArrayList<Future<Void>>(tasks.size());
+    for(Callable<Void> task : tasks){
+      futures.add(executor.submit(task));
+    }
+    boolean interrupted = false;
+    try{
+      for(Future<Void> future : futures){
+        while(true){
+          try{
+            future.get();
+            break;
+          }
+          catch(InterruptedException e){
+            interrupted = true;
+          }
+          catch(ExecutionException e){
+            final Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if(cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+          }
+        }
+      }
+    }
+    finally{
+      if(interrupted) Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * A worker of the data parallel training. It receives the model and its shard from the
+ * {@link ParameterServer}, and exchanges the changes of the weights with it while the
+ * training threads train the shard. The weights keep being updated by the training threads
+ * during an exchange, so the averaged weights are applied as the difference from the sent weights.
+ * The sent weights are the only copy of the model a worker keeps, a row at a time.
+ */
+final class ParameterClient {
+
+  private final Config config;
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private WeightMatrix[] matrices;
+  /**
+   * The weights of each row which were sent last, which are the averaged weights between the exchanges
+   */
+  private float[][][] snapshots;
+  private double[] row;
+  private ByteBuffer buffer;
+  private int shard, numShards, numChunks;
+
+  ParameterClient(Config config) throws IOException {
+    this.config = config;
+    socket = new Socket(config.getCoordinatorHost(), config.getCoordinatorPort());
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+  }
+
+  /**
+   * Receives the vocabulary and the weights from the coordinator into the corpus and the network
+   */
+  void receiveModel(Word2vec vec, Corpus corpus) throws IOException {
+    out.writeInt(ParameterServer.MAGIC);
+    out.writeInt(ParameterServer.VERSION);
+    out.flush();
+    if(in.readInt() != ParameterServer.MAGIC || in.readInt() != ParameterServer.VERSION)
+      throw new IOException(String.format("%s is not a coordinator of this version", socket.getRemoteSocketAddress()));
+    final int layer1Size = in.readInt();
+    final int vocabSize = in.readInt();
+    final boolean hs = in.readBoolean();
+    final int negative = in.readInt();
+    if(layer1Size != config.getLayer1Size() || hs != config.useHierarchicalSoftmax() || (negative > 0) != (config.getNegative() > 0))
+      throw new IllegalArgumentException(String.format("the coordinator trains with -size %d%s -negative %d", layer1Size, hs ? " -hs" : "", negative));
+    shard = in.readInt();
+    numShards = in.readInt();
+    numChunks = in.readInt();
+    final long trainWords = in.readLong();
+    corpus.restoreVocab(Checkpoint.readVocab(in, vocabSize), trainWords * getShardChunks().length / numChunks);
+
+    vec.createNet(vocabSize);
+    vec.createBinaryTree(corpus);
+    matrices = ParameterServer.sharedMatrices(vec, config);
+    snapshots = new float[matrices.length][vocabSize][layer1Size];
+    row = new double[layer1Size];
+    buffer = Checkpoint.rowBuffer(layer1Size);
+    for(int m = 0; m < matrices.length; m++){
+      for(int r = 0; r < vocabSize; r++){
+        final float[] snapshot = snapshots[m][r];
+        Checkpoint.readRow(in, row, buffer);
+        for(int c = 0; c < layer1Size; c++){
+          matrices[m].set(r, c, row[c]);
+          snapshot[c] = (float)row[c];
+        }
+      }
+    }
+  }
+
+  int getShard(){
+    return shard;
+  }
+
+  int getNumChunks(){
+    return numChunks;
+  }
+
+  /**
+   * Returns the chunks of the shard of this worker
+   */
+  int[] getShardChunks(){
+    final int from = (int)((long)numChunks * shard / numShards);
+    final int to = (int)((long)numChunks * (shard + 1) / numShards);
+    int[] chunks = new int[to - from];
+    for(int i = 0; i < chunks.length; i++){
+      chunks[i] = from + i;
+    }
+    return chunks;
+  }
+
+  /**
+   * Sends the changes of the weights since the last exchange and applies the averaged weights of the round
+   * @param done true if this is the last exchange
+   */
+  synchronized void exchange(boolean done) throws IOException {
+    final int columns = row.length;
+    out.writeByte(done ? ParameterServer.DONE : ParameterServer.SYNC);
+    for(int m = 0; m < matrices.length; m++){
+      for(int r = 0; r < snapshots[m].length; r++){
+        final float[] snapshot = snapshots[m][r];
+        matrices[m].copyRow(r, row);
+        for(int c = 0; c < columns; c++){
+          final float sent = (float)row[c];
+          row[c] = sent - snapshot[c];
+          snapshot[c] = sent;
+        }
+        Checkpoint.writeRow(out, row, buffer);
+      }
+    }
+    out.flush();
+
+    // the training threads have gone on from the sent weights
+    for(int m = 0; m < matrices.length; m++){
+      for(int r = 0; r < snapshots[m].length; r++){
+        final float[] snapshot = snapshots[m][r];
+        Checkpoint.readRow(in, row, buffer);
+        for(int c = 0; c < columns; c++){
+          final float averaged = (float)row[c];
+          row[c] = averaged - snapshot[c];
+          snapshot[c] = averaged;
+        }
+        matrices[m].update(r, 1, row);
+      }
+    }
+  }
+
+  void close(){
+    ParameterServer.closeQuietly(socket);
+  }
+}
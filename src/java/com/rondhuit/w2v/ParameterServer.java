@@ -0,0 +1,208 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The coordinator of the data parallel training. It builds the vocabulary, the Huffman codes and the
+ * initial weights once and sends them to every worker with the range of the chunks (the shard) that
+ * the worker trains. Then the workers train their shards and send the changes of their weights
+ * since the last exchange in rounds. The coordinator adds the average of the changes of a round
+ * to its weights as it reads them and sends the averaged weights back, so all the workers share
+ * the same averaged model. The weights are streamed a row at a time and neither side keeps a copy
+ * of the changes. The rounds end when all the workers have finished their shards.
+ *
+ * @see ParameterClient
+ */
+final class ParameterServer {
+
+  static final int MAGIC   = 0x57325053;    // "W2PS"
+  static final int VERSION = 4;
+  static final byte SYNC = 1, DONE = 2;
+
+  private static Logger logger = LoggerFactory.getLogger(ParameterServer.class);
+
+  private final Config config;
+  private final Corpus corpus;
+  private final WeightMatrix[] matrices;
+
+  ParameterServer(Word2vec vec, Config config, Corpus corpus){
+    this.config = config;
+    this.corpus = corpus;
+    this.matrices = sharedMatrices(vec, config);
+  }
+
+  /**
+   * Returns the weight matrices which are averaged
+   */
+  static WeightMatrix[] sharedMatrices(Word2vec vec, Config config){
+    List<WeightMatrix> list = new ArrayList<WeightMatrix>(3);
+    list.add(vec.syn0);
+    if(config.useHierarchicalSoftmax()) list.add(vec.syn1);
+    if(config.getNegative() > 0) list.add(vec.syn1neg);
+    return list.toArray(new WeightMatrix[list.size()]);
+  }
+
+  /**
+   * Waits for the workers to connect, sends them the model and averages their changes until all of them have finished
+   */
+  void run() throws IOException {
+    final int numWorkers = config.getNumWorkers();
+    final int numChunks = corpus.getNumChunks(config.getNumThreads() * numWorkers);
+    List<Connection> workers = new ArrayList<Connection>(numWorkers);
+    ServerSocket server = new ServerSocket(config.getCoordinatorPort());
+    try{
+      logger.info("waiting for {} workers on port {}", numWorkers, config.getCoordinatorPort());
+      for(int i = 0; i < numWorkers; i++){
+        Connection worker = new Connection(server.accept());
+        workers.add(worker);
+        logger.info("worker {} connected from {}", i, worker.socket.getRemoteSocketAddress());
+        worker.sendModel(i, numWorkers, numChunks);
+      }
+      closeQuietly(server);
+      server = null;
+
+      final double[] row = new double[config.getLayer1Size()];
+      final ByteBuffer buffer = Checkpoint.rowBuffer(row.length);
+      int round = 0;
+      while(!workers.isEmpty()){
+        List<Connection> active = new ArrayList<Connection>(workers.size());
+        // the average is the sum of the changes which are scaled by the number of the workers
+        final double scale = 1.0 / workers.size();
+        for(Connection worker : workers){
+          if(worker.receiveChanges(scale, row, buffer) == SYNC) active.add(worker);
+        }
+        for(Connection worker : workers){
+          worker.sendWeights(row, buffer);
+        }
+        round++;
+        logger.info("averaged round {} of {} workers, {} still training", new Object[]{ round, workers.size(), active.size() });
+        for(Connection worker : workers){
+          if(!active.contains(worker)) worker.close();
+        }
+        workers = active;
+      }
+    }
+    finally{
+      closeQuietly(server);
+      for(Connection worker : workers){
+        worker.close();
+      }
+    }
+  }
+
+  final class Connection {
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+    }
+
+    void sendModel(int shard, int numShards, int numChunks) throws IOException {
+      if(in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new IOException(String.format("%s is not a worker of this version", socket.getRemoteSocketAddress()));
+      final int vocabSize = corpus.getVocabSize();
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(config.getLayer1Size());
+      out.writeInt(vocabSize);
+      out.writeBoolean(config.useHierarchicalSoftmax());
+      out.writeInt(config.getNegative());
+      out.writeInt(shard);
+      out.writeInt(numShards);
+      out.writeInt(numChunks);
+      out.writeLong(corpus.getTrainWords());
+      Checkpoint.writeVocab(out, corpus.getVocab(), vocabSize);
+      final double[] row = new double[config.getLayer1Size()];
+      for(WeightMatrix matrix : matrices){
+        Checkpoint.writeMatrix(out, matrix, vocabSize, row);
+      }
+      out.flush();
+    }
+
+    /**
+     * Adds the changes of the worker times the scale to the weights
+     * @return {@link ParameterServer#SYNC} or {@link ParameterServer#DONE} if the worker has finished
+     */
+    byte receiveChanges(double scale, double[] row, ByteBuffer buffer) throws IOException {
+      final byte type = in.readByte();
+      if(type != SYNC && type != DONE)
+        throw new IOException(String.format("unknown message %d from %s", type, socket.getRemoteSocketAddress()));
+      final int vocabSize = corpus.getVocabSize();
+      for(WeightMatrix matrix : matrices){
+        for(int r = 0; r < vocabSize; r++){
+          Checkpoint.readRow(in, row, buffer);
+          matrix.update(r, scale, row);
+        }
+      }
+      return type;
+    }
+
+    /**
+     * Sends the weights with the average of the round
+     */
+    void sendWeights(double[] row, ByteBuffer buffer) throws IOException {
+      final int vocabSize = corpus.getVocabSize();
+      for(WeightMatrix matrix : matrices){
+        for(int r = 0; r < vocabSize; r++){
+          matrix.copyRow(r, row);
+          Checkpoint.writeRow(out, row, buffer);
+        }
+      }
+      out.flush();
+    }
+
+    void close(){
+      closeQuietly(socket);
+    }
+  }
+
+  // sockets are not Closeable before Java 7
+  static void closeQuietly(Socket socket){
+    try{
+      if(socket != null) socket.close();
+    }
+    catch(IOException ignored){}
+  }
+
+  static void closeQuietly(ServerSocket socket){
+    try{
+      if(socket != null) socket.close();
+    }
+    catch(IOException ignored){}
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counter of the words processed by the training threads. Every thread adds to its own
+ * slot, which is padded to a cache line, and readers sum up the slots.
+ */
+public final class ProgressCounter {
+
+  static final int PADDING             = 8;    // 8 longs = 64 bytes
+
+  private final int stripes;
+  private final AtomicLongArray counts;
+
+  public ProgressCounter(int stripes){
+    this.stripes = stripes;
+    counts = new AtomicLongArray((stripes + 1) * PADDING);
+  }
+
+  public void add(int stripe, long delta){
+    counts.addAndGet((stripe % stripes + 1) * PADDING, delta);
+  }
+
+  public long sum(){
+    long sum = 0;
+    for(int i = 1; i <= stripes; i++){
+      sum += counts.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  public void reset(){
+    for(int i = 1; i <= stripes; i++){
+      counts.set(i * PADDING, 0);
+    }
+  }
+}
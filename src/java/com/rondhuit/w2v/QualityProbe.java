@@ -0,0 +1,104 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Probes the quality of syn0 while the training threads update it, and stops the training when
+ * the quality has stopped improving. A probe copies the vectors of the most frequent words, normalizes
+ * them and answers a fixed sample of the analogy questions of the config as
+ * {@link com.rondhuit.w2v.demo.ComputeAccuracy} does. The training is stopped, as the time budget stops it,
+ * after the number of the probes of the patience in a row which have not beaten the best accuracy.
+ */
+final class QualityProbe implements Runnable {
+
+  private static Logger logger = LoggerFactory.getLogger(QualityProbe.class);
+
+  private final Word2vec vec;
+  private final Config config;
+  private final String[] vocab;
+  private final AnalogyEvaluator evaluator;
+  private final float[][] vectors;
+  private final double[] row;
+  private int probes, bestProbe, stale;
+  private double best = -1;
+
+  /**
+   * @param vocab the words of the vectors which the probes answer from, the most frequent first
+   */
+  QualityProbe(Word2vec vec, Config config, String[] vocab) throws IOException {
+    // the same questions every time, so that the probes can be compared
+    this(vec, config, vocab, new AnalogyEvaluator(config.getProbeFile()).sample(vocab, config.getProbeQuestions(), 1));
+  }
+
+  /**
+   * @param evaluator the questions which every probe answers
+   */
+  QualityProbe(Word2vec vec, Config config, String[] vocab, AnalogyEvaluator evaluator){
+    this.vec = vec;
+    this.config = config;
+    this.vocab = vocab;
+    this.evaluator = evaluator;
+    this.vectors = new float[vocab.length][config.getLayer1Size()];
+    this.row = new double[config.getLayer1Size()];
+  }
+
+  /**
+   * Returns the number of the sampled questions, which is 0 if no question can be answered from the words
+   */
+  int getNumQuestions(){
+    return evaluator.getNumQuestions();
+  }
+
+  @Override
+  public void run(){
+    final long start = System.currentTimeMillis();
+    final long words = vec.progress.sum();
+    for(int i = 0; i < vocab.length; i++){
+      vec.syn0.copyRow(i, row);
+      double len = 0;
+      for(int j = 0; j < row.length; j++){
+        len += row[j] * row[j];
+      }
+      len = Math.sqrt(len);
+      for(int j = 0; j < row.length; j++){
+        vectors[i][j] = len > 0 ? (float)(row[j] / len) : 0;
+      }
+    }
+    final double accuracy = evaluator.evaluate(vocab, vectors, 0);
+    probes++;
+    logger.info("probe {}: accuracy {}% of {} questions after {} words, in {} ms", new Object[]{ probes,
+        String.format("%.2f", accuracy * 100), evaluator.getNumQuestions(), words, System.currentTimeMillis() - start });
+
+    if(accuracy > best){
+      best = accuracy;
+      bestProbe = probes;
+      stale = 0;
+    }
+    else if(++stale >= config.getProbePatience()){
+      logger.info("stopping the training: no probe has beaten the accuracy {}% of probe {} since then", 
+          String.format("%.2f", best * 100), bestProbe);
+      vec.scheduler.stop();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * Thread private view of a shared {@link WeightMatrix} which keeps its own copy of the first
+ * (i.e. the most frequent) rows. Updates of these hot rows stay in the copy and are added to
+ * the shared matrix by {@link #merge()}, so the threads don't keep invalidating each other's
+ * cache lines of the rows that most of the updates go to. The other rows are read and
+ * written through to the shared matrix as usual.
+ */
+public class ReplicatedWeightMatrix extends WeightMatrix {
+
+  private final WeightMatrix shared;
+  private final int hotRows;
+  private final double[] local, snapshot, delta;
+
+  public ReplicatedWeightMatrix(WeightMatrix shared, int hotRows){
+    super(shared.getRows(), shared.getColumns(), shared.getKernel());
+    this.shared = shared;
+    this.hotRows = Math.min(hotRows, shared.getRows());
+    local = new double[this.hotRows * columns];
+    snapshot = new double[this.hotRows * columns];
+    delta = new double[columns];
+    refresh();
+  }
+
+  /**
+   * Adds the local updates of the hot rows to the shared matrix and takes a fresh copy of them
+   */
+  public void merge(){
+    for(int row = 0; row < hotRows; row++){
+      final int l = row * columns;
+      for(int c = 0; c < columns; c++) delta[c] = local[c + l] - snapshot[c + l];
+      shared.update(row, 1, delta);
+    }
+    refresh();
+  }
+
+  private void refresh(){
+    for(int row = 0; row < hotRows; row++){
+      shared.copyRow(row, delta);
+      System.arraycopy(delta, 0, local, row * columns, columns);
+      System.arraycopy(delta, 0, snapshot, row * columns, columns);
+    }
+  }
+
+  @Override
+  public double get(int row, int column){
+    return row < hotRows ? local[row * columns + column] : shared.get(row, column);
+  }
+
+  @Override
+  public void set(int row, int column, double value){
+    if(row < hotRows) local[row * columns + column] = value;
+    else shared.set(row, column, value);
+  }
+
+  @Override
+  public double dot(int row, double[] x){
+    return row < hotRows ? kernel.dot(x, local, row * columns, columns) : shared.dot(row, x);
+  }
+
+  @Override
+  public void accumulate(int row, double g, double[] y){
+    if(row < hotRows) kernel.accumulate(local, row * columns, g, y, columns);
+    else shared.accumulate(row, g, y);
+  }
+
+  @Override
+  public void update(int row, double g, double[] x){
+    if(row < hotRows) kernel.update(local, row * columns, g, x, columns);
+    else shared.update(row, g, x);
+  }
+
+  @Override
+  public void copyRow(int row, double[] y){
+    if(row < hotRows) System.arraycopy(local, row * columns, y, 0, columns);
+    else shared.copyRow(row, y);
+  }
+}
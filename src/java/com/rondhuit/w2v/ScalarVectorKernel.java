@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Plain loops which are the same as the original C code. The JIT compiler may vectorize the element-wise loops.
+ */
+public class ScalarVectorKernel extends VectorKernel {
+
+  @Override
+  public double dot(double[] x, double[] w, int off, int n){
+    double f = 0;
+    for(int c = 0; c < n; c++) f += x[c] * w[c + off];
+    return f;
+  }
+
+  @Override
+  public double dot(double[] x, float[] w, int off, int n){
+    double f = 0;
+    for(int c = 0; c < n; c++) f += x[c] * w[c + off];
+    return f;
+  }
+
+  @Override
+  public double dot(double[] x, FloatBuffer w, int off, int n){
+    double f = 0;
+    for(int c = 0; c < n; c++) f += x[c] * w.get(c + off);
+    return f;
+  }
+
+  @Override
+  public void accumulate(double[] w, int off, double g, double[] y, int n){
+    for(int c = 0; c < n; c++) y[c] += g * w[c + off];
+  }
+
+  @Override
+  public void accumulate(float[] w, int off, double g, double[] y, int n){
+    for(int c = 0; c < n; c++) y[c] += g * w[c + off];
+  }
+
+  @Override
+  public void accumulate(FloatBuffer w, int off, double g, double[] y, int n){
+    for(int c = 0; c < n; c++) y[c] += g * w.get(c + off);
+  }
+
+  @Override
+  public void update(double[] w, int off, double g, double[] x, int n){
+    for(int c = 0; c < n; c++) w[c + off] += g * x[c];
+  }
+
+  @Override
+  public void update(float[] w, int off, double g, double[] x, int n){
+    for(int c = 0; c < n; c++) w[c + off] += (float)(g * x[c]);
+  }
+
+  @Override
+  public void update(FloatBuffer w, int off, double g, double[] x, int n){
+    for(int c = 0; c < n; c++) w.put(c + off, w.get(c + off) + (float)(g * x[c]));
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import static com.rondhuit.w2v.Word2vec.MAX_SENTENCE_LENGTH;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the corpus on dedicated reader threads, so that the decoding, the analysis and the vocabulary
+ * lookup of the words don't run on the cores of the training threads. The readers take the chunks
+ * from the {@link AbstractChunkScheduler} and fill sentences of word indexes which are already subsampled.
+ * The sentences are preallocated and go round through two bounded queues, the free ones and
+ * the filled ones, so the pipeline works like a ring buffer between the readers and the trainers.
+ * A chunk is finished when the trainers have trained all of its sentences, and the readers start
+ * the next iteration when all the chunks are finished.
+ */
+final class SentencePipeline {
+
+  /**
+   * The number of sentences in the pipeline for each reader and trainer thread
+   */
+  static final int SENTENCES_PER_THREAD = 64;
+
+  static final Sentence END = new Sentence(0);
+
+  private final Config config;
+  private final AbstractChunkScheduler scheduler;
+  private final BlockingQueue<Sentence> free, filled;
+  private final int numTrainers;
+  private final AtomicInteger activeReaders;
+
+  SentencePipeline(Config config, AbstractChunkScheduler scheduler, int numReaders, int numTrainers){
+    this.config = config;
+    this.scheduler = scheduler;
+    this.numTrainers = numTrainers;
+    activeReaders = new AtomicInteger(numReaders);
+    final int capacity = (numReaders + numTrainers) * SENTENCES_PER_THREAD;
+    free = new ArrayBlockingQueue<Sentence>(capacity);
+    filled = new ArrayBlockingQueue<Sentence>(capacity + numTrainers);
+    for(int i = 0; i < capacity; i++){
+      free.add(new Sentence(MAX_SENTENCE_LENGTH + 1));
+    }
+  }
+
+  /**
+   * Returns the reader which reads the chunks from the corpus
+   * @param id the id of the reader in the {@link ChunkScheduler}
+   */
+  Callable<Void> createReader(Corpus corpus, int id){
+    return new Reader(corpus, id);
+  }
+
+  /**
+   * Takes the next sentence to train
+   * @return the sentence, or null if all the iterations have been read
+   */
+  Sentence take() throws InterruptedIOException {
+    final Sentence sentence = take(filled);
+    return sentence == END ? null : sentence;
+  }
+
+  /**
+   * Returns the trained sentence to the pipeline
+   */
+  void release(Sentence sentence){
+    release(sentence.chunk);
+    sentence.chunk = null;
+    free.offer(sentence);
+  }
+
+  void release(PendingChunk chunk){
+    if(chunk.count.decrementAndGet() == 0) scheduler.finish(chunk.chunk);
+  }
+
+  static Sentence take(BlockingQueue<Sentence> queue) throws InterruptedIOException {
+    try{
+      return queue.take();
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for sentences");
+    }
+  }
+
+  static final class Sentence {
+    final int[] words;
+    int length, wordCount;
+    PendingChunk chunk;
+
+    Sentence(int capacity){
+      words = new int[capacity];
+    }
+  }
+
+  /**
+   * Counts the sentences of a chunk which have not been trained. The reader holds one count
+   * until it has read the whole chunk.
+   */
+  static final class PendingChunk {
+    final int chunk;
+    final AtomicInteger count = new AtomicInteger(1);
+
+    PendingChunk(int chunk){
+      this.chunk = chunk;
+    }
+  }
+
+  final class Reader implements Callable<Void> {
+    final Corpus corpus;
+    final int id;
+    final FastRandom random;
+    final float[] keepProbability;
+
+    Reader(Corpus corpus, int id){
+      this.corpus = corpus;
+      this.id = id;
+      // the seeds of the trainers are 0 to numTrainers - 1
+      this.random = FastRandom.create(config.getRandom(), numTrainers + id);
+      this.keepProbability = corpus.getKeepProbabilities();
+    }
+
+    public Void call() throws IOException {
+      try{
+        while(true){
+          final int chunk = scheduler.nextChunk(id);
+          if(chunk < 0){    // no chunks are left in this iteration
+            scheduler.awaitFinished();
+            if(!scheduler.awaitNextIteration()) break;
+            continue;
+          }
+          corpus.seekChunk(chunk, scheduler.getNumChunks());
+          readChunk(new PendingChunk(chunk));
+        }
+      }
+      finally{
+        corpus.shutdown();
+        if(activeReaders.decrementAndGet() == 0){
+          for(int i = 0; i < numTrainers; i++){
+            filled.offer(END);
+          }
+        }
+      }
+      return null;
+    }
+
+    void readChunk(PendingChunk chunk) throws IOException {
+      Sentence sentence = take(free);
+      sentence.length = 0;
+      sentence.wordCount = 0;
+      int word;
+      do{
+        while(true){
+          word = corpus.readWordIndex();
+          if(word == -2) break;                // end of the chunk
+          if(word == -1) continue;
+          sentence.wordCount++;
+          if (word == -3) break;
+          // The subsampling randomly discards frequent words while keeping the ranking same
+          if (keepProbability != null) {
+            if (keepProbability[word] < (random.next() & 0xFFFF) / 65536F) continue;
+          }
+          sentence.words[sentence.length++] = word;
+          if (sentence.length >= MAX_SENTENCE_LENGTH) break;
+        }
+        // an empty sentence passes its word count on to the next one
+        if(sentence.length > 0 || (word == -2 && sentence.wordCount > 0)){
+          sentence.chunk = chunk;
+          chunk.count.incrementAndGet();
+          put(sentence);
+          if(word != -2){
+            sentence = take(free);
+            sentence.length = 0;
+            sentence.wordCount = 0;
+          }
+          else{
+            sentence = null;
+          }
+        }
+      } while(word != -2);
+      if(sentence != null) free.offer(sentence);
+      release(chunk);
+    }
+
+    void put(Sentence sentence) throws InterruptedIOException {
+      try{
+        filled.put(sentence);
+      }
+      catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for the trainers");
+      }
+    }
+  }
+}
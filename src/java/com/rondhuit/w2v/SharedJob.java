@@ -0,0 +1,414 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rondhuit.commons.IOUtils;
+
+/**
+ * A training job which several processes on the same host run together. The weights are mapped
+ * from files in the directory of the job and every process updates them without locks as the
+ * training threads of a process do. The control file of the job holds the vocabulary, the words
+ * trained by each process and the chunks that they have claimed, so a process can join the job
+ * while it is running. The process which has created the job waits for the others and saves the
+ * word vectors.
+ */
+final class SharedJob {
+
+  static final int MAGIC   = 0x57324a42;    // "W2JB"
+  static final int VERSION = 3;
+  static final String CONTROL_FILE = "job.ctl";
+  static final int MAX_PROCESSES = 64;
+  static final long HEARTBEAT_MILLIS = 1000;
+  static final long STALE_MILLIS     = 30000;
+
+  // the state follows the header, and the vocabulary follows the state
+  static final int HEADER_BYTES = 64;
+  static final int TICKET = 0, FINISHED = 8, DONE = 16, SLOTS = 64;
+  // a slot of a process
+  static final int SLOT_STATE = 0, SLOT_WORDS = 8, SLOT_HEARTBEAT = 16, SLOT_BYTES = 32;
+  static final int FREE = 0, ACTIVE = 1, LEFT = 2;
+  // the slot + 1 of the process which has claimed each chunk last
+  static final int ASSIGNMENTS = SLOTS + MAX_PROCESSES * SLOT_BYTES;
+
+  private static Logger logger = LoggerFactory.getLogger(SharedJob.class);
+
+  private final File file;
+  private final RandomAccessFile raf;
+  private final MappedByteBuffer state;
+  private final int slot, numChunks, iter;
+  private final float startingAlpha;
+  private long othersWords;
+
+  private SharedJob(File file, int numChunks, int iter, float startingAlpha, boolean create) throws IOException {
+    this.file = file;
+    this.numChunks = numChunks;
+    this.iter = iter;
+    this.startingAlpha = startingAlpha;
+    raf = new RandomAccessFile(file, "rw");
+    boolean joined = false;
+    try{
+      state = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, stateBytes(numChunks));
+      slot = create ? claimSlot() : join();
+      joined = true;
+    }
+    finally{
+      if(!joined) IOUtils.closeQuietly(raf);
+    }
+  }
+
+  static int stateBytes(int numChunks){
+    return ASSIGNMENTS + numChunks * 4;
+  }
+
+  /**
+   * Builds the weights in the directory and the control file of the job, which other processes can join.
+   * The vocabulary of the corpus must have been learnt.
+   */
+  static SharedJob create(File dir, Word2vec vec, Corpus corpus, Config config) throws IOException {
+    final int vocabSize = corpus.getVocabSize();
+    // finer chunks than a process needs, so that the processes which join later get their share
+    final int numChunks = corpus.getNumChunks(config.getNumThreads() * 4);
+    mapNet(dir, vec, config, vocabSize, false);
+    vec.initSyn0(vocabSize);
+    vec.createBinaryTree(corpus);
+
+    final File file = new File(dir, CONTROL_FILE);
+    final File tmp = new File(dir, CONTROL_FILE + ".tmp");
+    DataOutputStream out = null;
+    try{
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(config.getLayer1Size());
+      out.writeInt(vocabSize);
+      out.writeBoolean(config.useHierarchicalSoftmax());
+      out.writeInt(config.getNegative());
+      out.writeInt(numChunks);
+      out.writeInt(config.getIter());
+      out.writeLong(corpus.getTrainWords());
+      out.writeFloat(config.getAlpha());
+      out.write(new byte[HEADER_BYTES - out.size()]);
+      out.write(new byte[stateBytes(numChunks)]);
+      Checkpoint.writeVocab(out, corpus.getVocab(), vocabSize);
+      out.close();
+      out = null;
+    }
+    finally{
+      IOUtils.closeQuietly(out);
+    }
+    // the processes which join never see a half written control file
+    if(!tmp.renameTo(file)){
+      if(!file.delete() || !tmp.renameTo(file))
+        throw new IOException(String.format("cannot rename %s to %s", tmp, file));
+    }
+    return new SharedJob(file, numChunks, config.getIter(), config.getAlpha(), true);
+  }
+
+  /**
+   * Joins the running job in the directory. The vocabulary of the corpus is restored from the control file
+   * and the weights are mapped from the files of the job.
+   */
+  static SharedJob join(File dir, Word2vec vec, Corpus corpus, Config config) throws IOException {
+    final File file = new File(dir, CONTROL_FILE);
+    DataInputStream in = null;
+    try{
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+      if(in.readInt() != MAGIC || in.readInt() != VERSION)
+        throw new IOException(String.format("%s is not a control file of this version", file));
+      final int layer1Size = in.readInt();
+      final int vocabSize = in.readInt();
+      final boolean hs = in.readBoolean();
+      final int negative = in.readInt();
+      final int numChunks = in.readInt();
+      final int iter = in.readInt();
+      if(layer1Size != config.getLayer1Size() || hs != config.useHierarchicalSoftmax() || (negative > 0) != (config.getNegative() > 0)
+          || iter != config.getIter())
+        throw new IllegalArgumentException(String.format("%s is trained with -size %d%s -negative %d -iter %d",
+            file, layer1Size, hs ? " -hs" : "", negative, iter));
+      final long trainWords = in.readLong();
+      final float startingAlpha = in.readFloat();
+      // 41 bytes of the fields above
+      in.skipBytes(HEADER_BYTES - 41 + stateBytes(numChunks));
+      corpus.restoreVocab(Checkpoint.readVocab(in, vocabSize), trainWords);
+      vec.createBinaryTree(corpus);
+      mapNet(dir, vec, config, vocabSize, true);
+      return new SharedJob(file, numChunks, iter, startingAlpha, false);
+    }
+    finally{
+      IOUtils.closeQuietly(in);
+    }
+  }
+
+  /**
+   * Maps the weights from the files in the directory
+   * @param attach true to keep the weights which other processes are training
+   */
+  static void mapNet(File dir, Word2vec vec, Config config, int vocabSize, boolean attach) throws IOException {
+    final int columns = config.getLayer1Size();
+    final VectorKernel kernel = VectorKernel.getInstance(config.getVectorKernel(), columns);
+    vec.syn0 = new OffHeapWeightMatrix(vocabSize, columns, kernel, new File(dir, "syn0.bin"), config.usePreTouch(), attach);
+    vec.syn1 = config.useHierarchicalSoftmax() ?
+        new OffHeapWeightMatrix(vocabSize, columns, kernel, new File(dir, "syn1.bin"), config.usePreTouch(), attach) : null;
+    vec.syn1neg = config.getNegative() > 0 ?
+        new OffHeapWeightMatrix(vocabSize, columns, kernel, new File(dir, "syn1neg.bin"), config.usePreTouch(), attach) : null;
+  }
+
+  /**
+   * Locks the state against the other processes. The threads of this process are excluded by the monitor of the job.
+   */
+  private FileLock lock() throws IOException {
+    return raf.getChannel().lock(HEADER_BYTES, stateBytes(numChunks), false);
+  }
+
+  private static void release(FileLock lock){
+    try{
+      lock.release();
+    }
+    catch(IOException ignored){}
+  }
+
+  private synchronized int join() throws IOException {
+    FileLock lock = lock();
+    try{
+      if(state.getInt(DONE) != 0 || state.getLong(TICKET) >= (long)iter * numChunks)
+        throw new IllegalStateException(String.format("the job of %s has finished", file));
+      return claimSlot();
+    }
+    finally{
+      release(lock);
+    }
+  }
+
+  private int claimSlot(){
+    for(int i = 0; i < MAX_PROCESSES; i++){
+      final int s = SLOTS + i * SLOT_BYTES;
+      // the slots are not reused, because the words trained by the processes which have left are a part of the progress
+      if(state.getInt(s + SLOT_STATE) == FREE){
+        state.putInt(s + SLOT_STATE, ACTIVE);
+        state.putLong(s + SLOT_HEARTBEAT, System.currentTimeMillis());
+        return i;
+      }
+    }
+    throw new IllegalStateException(String.format("%d processes have joined the job of %s already", MAX_PROCESSES, file));
+  }
+
+  /**
+   * Returns true if this process has created the job
+   */
+  boolean isOwner(){
+    return slot == 0;
+  }
+
+  int getSlot(){
+    return slot;
+  }
+
+  float getStartingAlpha(){
+    return startingAlpha;
+  }
+
+  /**
+   * Publishes the words trained by this process and adds the words trained by the others since
+   * the last heartbeat to the progress, so that the learning rate decays with the progress of the job
+   */
+  synchronized void heartbeat(ProgressCounter progress) throws IOException {
+    FileLock lock = lock();
+    try{
+      final int own = SLOTS + slot * SLOT_BYTES;
+      final long ownWords = progress.sum() - othersWords;
+      state.putLong(own + SLOT_WORDS, ownWords);
+      state.putLong(own + SLOT_HEARTBEAT, System.currentTimeMillis());
+      long words = 0;
+      for(int i = 0; i < MAX_PROCESSES; i++){
+        if(i != slot) words += state.getLong(SLOTS + i * SLOT_BYTES + SLOT_WORDS);
+      }
+      progress.add(0, words - othersWords);
+      othersWords = words;
+    }
+    finally{
+      release(lock);
+    }
+  }
+
+  /**
+   * Waits for all the chunks to be finished, or for the other processes to leave or to stop the heartbeats,
+   * and marks the job done. The chunks claimed by a process which has died are not trained again.
+   */
+  void awaitCompletion() throws IOException {
+    final long total = (long)iter * numChunks;
+    long lastLog = System.currentTimeMillis();
+    while(true){
+      synchronized(this){
+        FileLock lock = lock();
+        try{
+          if(state.getLong(FINISHED) >= total || !othersActive()){
+            state.putInt(DONE, 1);
+            return;
+          }
+        }
+        finally{
+          release(lock);
+        }
+      }
+      try{
+        Thread.sleep(HEARTBEAT_MILLIS);
+      }
+      catch(InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("interrupted while waiting for the other processes");
+      }
+      if(System.currentTimeMillis() - lastLog >= 60000){
+        logger.info("waiting for the other processes of the job {}", file);
+        lastLog = System.currentTimeMillis();
+      }
+    }
+  }
+
+  private boolean othersActive(){
+    final long now = System.currentTimeMillis();
+    for(int i = 0; i < MAX_PROCESSES; i++){
+      final int s = SLOTS + i * SLOT_BYTES;
+      if(i != slot && state.getInt(s + SLOT_STATE) == ACTIVE && now - state.getLong(s + SLOT_HEARTBEAT) < STALE_MILLIS) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Leaves the job. The weights remain mapped until they are garbage collected.
+   */
+  synchronized void close(){
+    try{
+      FileLock lock = lock();
+      try{
+        state.putInt(SLOTS + slot * SLOT_BYTES + SLOT_STATE, LEFT);
+      }
+      finally{
+        release(lock);
+      }
+    }
+    catch(IOException e){
+      logger.warn("failed to leave the job " + file, e);
+    }
+    finally{
+      IOUtils.closeQuietly(raf);
+    }
+  }
+
+  /**
+   * Returns the scheduler which claims the chunks of the job
+   */
+  AbstractChunkScheduler createScheduler(){
+    return new Scheduler();
+  }
+
+  /**
+   * Claims the chunks from the control file in the order of the tickets. The ticket t is the chunk t % numChunks
+   * of the iteration t / numChunks, so there is no barrier between the iterations and a process finishes
+   * when all the tickets have been claimed, or at its own deadline. The position of a shared job cannot
+   * be checkpointed.
+   */
+  final class Scheduler extends AbstractChunkScheduler {
+
+    @Override
+    public int getNumChunks(){
+      return numChunks;
+    }
+
+    @Override
+    public int nextChunk(int id){
+      // the other processes go on with the chunks which are left
+      if(pastDeadline()) return -1;
+      synchronized(SharedJob.this){
+        try{
+          FileLock lock = lock();
+          try{
+            final long ticket = state.getLong(TICKET);
+            if(ticket >= (long)iter * numChunks || state.getInt(DONE) != 0) return -1;
+            state.putLong(TICKET, ticket + 1);
+            final int chunk = (int)(ticket % numChunks);
+            state.putInt(ASSIGNMENTS + chunk * 4, slot + 1);
+            return chunk;
+          }
+          finally{
+            release(lock);
+          }
+        }
+        catch(IOException e){
+          throw new IllegalStateException("failed to claim a chunk of the job " + file, e);
+        }
+      }
+    }
+
+    @Override
+    public void finish(int chunk){
+      synchronized(SharedJob.this){
+        try{
+          FileLock lock = lock();
+          try{
+            state.putLong(FINISHED, state.getLong(FINISHED) + 1);
+          }
+          finally{
+            release(lock);
+          }
+        }
+        catch(IOException e){
+          throw new IllegalStateException("failed to finish a chunk of the job " + file, e);
+        }
+      }
+    }
+
+    @Override
+    public int getIteration(){
+      return (int)Math.min(state.getLong(TICKET) / numChunks, iter - 1);
+    }
+
+    @Override
+    public int getIterations(){
+      return iter;
+    }
+
+    @Override
+    public void awaitFinished(){
+      // the iterations overlap
+    }
+
+    @Override
+    public boolean awaitNextIteration(){
+      // nextChunk() returns -1 only after the last iteration or the deadline
+      return false;
+    }
+  }
+}
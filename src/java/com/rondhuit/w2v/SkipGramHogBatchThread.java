@@ -0,0 +1,117 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import static com.rondhuit.w2v.Word2vec.EXP_TABLE_SIZE;
+import static com.rondhuit.w2v.Word2vec.MAX_EXP;
+import static com.rondhuit.w2v.Word2vec.expTable;
+
+/**
+ * Skip-gram with negative sampling trained in minibatches ("HogBatch").
+ * All the context words of a target word share one set of negative samples, so the rows
+ * are fetched once per target word and the gradients are computed by small dense
+ * matrix-matrix products on thread local copies:
+ * <pre>
+ *   F  = X . Y^T          (contexts x outputs)
+ *   G  = (label - sigmoid(F)) * alpha
+ *   dX = G . Y,  dY = G^T . X
+ * </pre>
+ * where X holds the syn0 rows of the context words and Y holds the syn1neg rows of
+ * the target word and the negative samples.
+ */
+class SkipGramHogBatchThread extends TrainModelThread {
+
+  final VectorKernel kernel;
+  final int[] inputs, outputs;
+  final double[][] x, dx, y, dy, g;
+
+  SkipGramHogBatchThread(Word2vec vec, Corpus corpus, Config config, int id){
+    super(vec, corpus, config, id);
+    kernel = syn0.getKernel();
+    inputs = new int[window * 2];
+    outputs = new int[negative + 1];
+    x = new double[window * 2][layer1Size];
+    dx = new double[window * 2][layer1Size];
+    y = new double[negative + 1][layer1Size];
+    dy = new double[negative + 1][layer1Size];
+    g = new double[window * 2][negative + 1];
+  }
+
+  @Override
+  void trainSentence(int[] sen, int sentenceLength){
+    for(int sentencePosition = 0; sentencePosition < sentenceLength; sentencePosition++){
+      final int word = sen[sentencePosition];
+      final int b = nextWindowShrink();
+
+      // gather the context words
+      int numInputs = 0;
+      for (int a = b; a < window * 2 + 1 - b; a++) if (a != window) {
+        final int c = sentencePosition - window + a;
+        if (c < 0) continue;
+        if (c >= sentenceLength) continue;
+        inputs[numInputs++] = sen[c];
+      }
+      if (numInputs == 0) continue;
+
+      // the target word and the shared negative samples
+      int numOutputs = 0;
+      outputs[numOutputs++] = word;
+      for (int d = 0; d < negative; d++) {
+        final int target = sampler.sample(random.next());
+        if (target == word) continue;
+        outputs[numOutputs++] = target;
+      }
+
+      for (int k = 0; k < numInputs; k++) {
+        syn0.copyRow(inputs[k], x[k]);
+        clear(dx[k]);
+      }
+      for (int j = 0; j < numOutputs; j++) {
+        syn1neg.copyRow(outputs[j], y[j]);
+        clear(dy[j]);
+      }
+
+      // G = (label - sigmoid(X . Y^T)) * alpha
+      for (int k = 0; k < numInputs; k++) {
+        for (int j = 0; j < numOutputs; j++) {
+          final int label = j == 0 ? 1 : 0;
+          final double f = kernel.dot(x[k], y[j], 0, layer1Size);
+          if (f > MAX_EXP) g[k][j] = (label - 1) * alpha;
+          else if (f < -MAX_EXP) g[k][j] = (label - 0) * alpha;
+          else g[k][j] = (label - expTable[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))]) * alpha;
+        }
+      }
+
+      // dX = G . Y, dY = G^T . X
+      for (int k = 0; k < numInputs; k++) {
+        for (int j = 0; j < numOutputs; j++) {
+          kernel.accumulate(y[j], 0, g[k][j], dx[k], layer1Size);
+          kernel.accumulate(x[k], 0, g[k][j], dy[j], layer1Size);
+        }
+      }
+
+      for (int j = 0; j < numOutputs; j++) {
+        syn1neg.update(outputs[j], 1, dy[j]);
+      }
+      for (int k = 0; k < numInputs; k++) {
+        syn0.update(inputs[k], 1, dx[k]);
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * Skip-gram with negative sampling
+ */
+class SkipGramNegativeSamplingThread extends TrainModelThread {
+
+  SkipGramNegativeSamplingThread(Word2vec vec, Corpus corpus, Config config, int id){
+    super(vec, corpus, config, id);
+  }
+
+  @Override
+  void trainSentence(int[] sen, int sentenceLength){
+    for(int sentencePosition = 0; sentencePosition < sentenceLength; sentencePosition++){
+      final int word = sen[sentencePosition];
+      final int b = nextWindowShrink();
+      for (int a = b; a < window * 2 + 1 - b; a++) if (a != window) {
+        final int c = sentencePosition - window + a;
+        if (c < 0) continue;
+        if (c >= sentenceLength) continue;
+        final int lastWord = sen[c];
+        // syn0 row of the context word is the input of the hidden layer
+        syn0.copyRow(lastWord, neu1);
+        clear(neu1e);
+        negativeSampling(word);
+        // Learn weights input -> hidden
+        syn0.update(lastWord, 1, neu1e);
+      }
+    }
+  }
+}
@@ -19,16 +19,26 @@ package com.rondhuit.w2v;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.rondhuit.commons.IOUtils;
 
 public class TextFileCorpus extends Corpus {
 
   static final int VOCAB_MAX_SIZE      = 30000000;
+  static final int MIN_CHUNK_BYTES     = 64 * 1024;
   
-  private int minReduce = 1;
   private long trainFileSize;
+  private long chunkEnd = Long.MAX_VALUE;
   private RandomAccessFile raf = null;
 
   public TextFileCorpus(Config config) throws IOException {
@@ -53,33 +63,46 @@ public class TextFileCorpus extends Corpus {
   public void rewind(int numThreads, int id) throws IOException {
     super.rewind(numThreads, id);
     raf.seek(trainFileSize / numThreads * id);
+    chunkEnd = Long.MAX_VALUE;
   }
 
   @Override
-  public String nextWord() throws IOException {
-    return readWord(raf);
+  public int getNumChunks(int numThreads){
+    final long chunks = Math.min((long)numThreads * ChunkScheduler.CHUNKS_PER_THREAD, trainFileSize / MIN_CHUNK_BYTES);
+    return (int)Math.max(chunks, 1);
   }
 
   /**
-   * Reduces the vocabulary by removing infrequent tokens
+   * A chunk is a range of bytes and a line belongs to the chunk where its first byte is.
    */
-  void reduceVocab(){
-    int j = 0;
-    for(int i = 0; i < vocabSize; i++){
-      if(vocab[i].cn > minReduce){
-        vocab[j].cn = vocab[i].cn;
-        vocab[j].word = vocab[i].word;
-        j++;
-      }
+  @Override
+  public void seekChunk(int chunk, int numChunks) throws IOException {
+    super.rewind(numChunks, chunk);
+    final long start = trainFileSize * chunk / numChunks;
+    chunkEnd = chunk == numChunks - 1 ? Long.MAX_VALUE : trainFileSize * (chunk + 1) / numChunks;
+    if(start == 0){
+      raf.seek(0);
     }
-    vocabSize = j;
-    vocabIndexMap.clear();
-    for(int i = 0; i < vocabSize; i++){
-      vocabIndexMap.put(vocab[i].word, i);
+    else{
+      // skip the rest of the line which starts in the previous chunk
+      raf.seek(start - 1);
+      raf.readLine();
     }
-    minReduce++;
+    wordsBuffer = new String[0];
+    wbp = 0;
   }
-  
+
+  @Override
+  public String nextWord() throws IOException {
+    return readWord(raf);
+  }
+
+  /**
+   * Counts the words on the training threads. The file is divided into a shard per thread like the chunks
+   * of {@link #seekChunk(int, int)}, and the counters of the shards are merged in the order of the shards,
+   * so that the vocabulary is in the order of the first appearance of the words as if the file was read
+   * by {@link #readWord(RandomAccessFile)}. The end of sentence, which is the null word, appears first.
+   */
   @Override
   public void learnVocab() throws IOException {
     super.learnVocab();
@@ -87,28 +110,81 @@ public class TextFileCorpus extends Corpus {
     final String trainFile = ((TextFileConfig)config).getInputFile();
     trainFileSize = new File(trainFile).length();
 
-    RandomAccessFile raf = null;
-    vocabSize = 0;
+    final int maxSize = (int)(VOCAB_MAX_SIZE * 0.7);
+    final int numShards = (int)Math.max(Math.min(config.getNumThreads(), trainFileSize / MIN_CHUNK_BYTES), 1);
+    final AtomicLong progress = new AtomicLong();
+    ExecutorService executor = Executors.newFixedThreadPool(numShards, new Word2vec.DaemonThreadFactory("w2v-vocab-"));
+    VocabCounter counter = null;
     try{
-      raf = new RandomAccessFile(trainFile, "r");
-      while(true){
-        String word = readWord(raf);
-        if(word == null && eoc) break;
-        trainWords++;
-        if (trainWords % 100000 == 0) {
-          System.err.printf("%dK%c", trainWords / 1000, 13);
-        }
-        int idx = searchVocab(word);
-        if(idx == -1) {
-          int p = addWordToVocab(word);
-          vocab[p].cn = 1;
-        } else vocab[idx].cn++;
-        if (vocabSize > VOCAB_MAX_SIZE * 0.7)
-          reduceVocab();
+      List<Future<VocabCounter>> shards = new ArrayList<Future<VocabCounter>>(numShards);
+      for(int i = 0; i < numShards; i++){
+        final long start = trainFileSize * i / numShards;
+        final long end = i == numShards - 1 ? Long.MAX_VALUE : trainFileSize * (i + 1) / numShards;
+        shards.add(executor.submit(new Callable<VocabCounter>(){
+          @Override
+          public VocabCounter call() throws IOException {
+            VocabCounter shard = new VocabCounter(maxSize);
+            RandomAccessFile raf = new RandomAccessFile(trainFile, "r");
+            try{
+              shard.count(raf, start, end, progress);
+            }
+            finally{
+              IOUtils.closeQuietly(raf);
+            }
+            return shard;
+          }
+        }));
+      }
+      for(Future<VocabCounter> shard : shards){
+        if(counter == null) counter = shard.get();
+        else counter.merge(shard.get());
       }
     }
-    finally {
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while counting the words");
+    }
+    catch(ExecutionException e){
+      final Throwable cause = e.getCause();
+      if(cause instanceof IOException) throw (IOException)cause;
+      if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if(cause instanceof Error) throw (Error)cause;
+      throw new RuntimeException(cause);
+    }
+    finally{
+      executor.shutdownNow();
+    }
+
+    // the words are unique, so the dictionary is built at once instead of the map
+    vocabMaxSize = counter.size() + 1;
+    vocab = new VocabWord[vocabMaxSize];
+    vocabSize = 0;
+    if(counter.getLines() > 0){
+      vocab[vocabSize] = new VocabWord(null);
+      vocab[vocabSize++].cn = counter.getLines();
+    }
+    for(int i = 0; i < counter.size(); i++){
+      vocab[vocabSize] = new VocabWord(counter.getWord(i));
+      vocab[vocabSize++].cn = counter.getCount(i);
+    }
+    buildDictionary();
+  }
+  
+  @Override
+  public void restoreVocab(VocabWord[] words, long trainWords) throws IOException {
+    super.restoreVocab(words, trainWords);
+    trainFileSize = new File(((TextFileConfig)config).getInputFile()).length();
+  }
+
+  @Override
+  public int[] updateVocab() throws IOException {
+    raf = new RandomAccessFile(((TextFileConfig)config).getInputFile(), "r");
+    try{
+      return super.updateVocab();
+    }
+    finally{
       IOUtils.closeQuietly(raf);
+      raf = null;
     }
   }
   
@@ -128,7 +204,7 @@ public class TextFileCorpus extends Corpus {
         return wordsBuffer[wbp++];
       }
       
-      String line = raf.readLine();
+      String line = raf.getFilePointer() < chunkEnd ? raf.readLine() : null;
       if(line == null){      // end of corpus
         eoc = true;
         return null;
@@ -0,0 +1,259 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the numbers of the training threads and the reader threads before the training. The model
+ * is trained in short bursts on the corpus with the numbers of threads doubled from 1 up to the number
+ * of the processors, as long as the words per second go up by {@link #MIN_GAIN} at least. If the config
+ * has reader threads, their number is tuned the same way for the best number of the training threads.
+ * The bursts train copies of the weights, which are dropped after the tuning, so the training starts
+ * from the weights and the learning rate as they are and the progress is left untouched.
+ */
+final class ThreadTuner {
+
+  /**
+   * More threads are tried only while the throughput goes up by at least this ratio
+   */
+  static final double MIN_GAIN = 1.05;
+
+  /**
+   * The bursts divide the corpus into finer chunks than the training, so that they stop close to the end
+   */
+  static final int CHUNKS_PER_BURST = 16;
+
+  private static Logger logger = LoggerFactory.getLogger(ThreadTuner.class);
+
+  private final Word2vec vec;
+  private final Config config;
+  private final CorpusFactory corpusFactory;
+  private final Corpus corpus;
+  private final long burstMillis;
+
+  ThreadTuner(Word2vec vec, Config config, CorpusFactory corpusFactory, Corpus corpus){
+    this.vec = vec;
+    this.config = config;
+    this.corpusFactory = corpusFactory;
+    this.corpus = corpus;
+    this.burstMillis = config.getAutoTune() * 1000L;
+  }
+
+  /**
+   * Trains the bursts and sets the best numbers of the threads to the config
+   */
+  void tune() throws IOException {
+    final Word2vec[] models = models(vec);
+    final WeightMatrix[][] weights = new WeightMatrix[models.length][];
+    final float[][][] sums = new float[models.length][][];
+    for(int m = 0; m < models.length; m++){
+      final Word2vec model = models[m];
+      weights[m] = new WeightMatrix[]{ model.syn0, model.syn1, model.syn1neg };
+      model.syn0 = copy(model.syn0, model.getConfig());
+      model.syn1 = copy(model.syn1, model.getConfig());
+      model.syn1neg = copy(model.syn1neg, model.getConfig());
+      sums[m] = model.adaGradSums;
+      model.adaGradSums = copy(model.adaGradSums);
+    }
+    try{
+      tuneThreads();
+    }
+    finally{
+      for(int m = 0; m < models.length; m++){
+        final Word2vec model = models[m];
+        model.syn0 = weights[m][0];
+        model.syn1 = weights[m][1];
+        model.syn1neg = weights[m][2];
+        // the sums of the bursts are dropped with their weights, and the restored sums are kept
+        model.adaGradSums = sums[m];
+      }
+    }
+  }
+
+  /**
+   * Returns the models which the bursts train, the model and its co-models
+   */
+  static Word2vec[] models(Word2vec vec){
+    if(vec.coModels == null) return new Word2vec[]{ vec };
+    Word2vec[] models = new Word2vec[vec.coModels.length + 1];
+    models[0] = vec;
+    System.arraycopy(vec.coModels, 0, models, 1, vec.coModels.length);
+    return models;
+  }
+
+  /**
+   * Returns the copy of the weights which the bursts train. The copy of a mapped matrix is in direct buffers,
+   * which are trained at the same speed without a file.
+   */
+  static WeightMatrix copy(WeightMatrix matrix, Config config) throws IOException {
+    if(matrix == null) return null;
+    final int rows = matrix.getRows(), columns = matrix.getColumns();
+    final WeightMatrix copy = config.getWeightStorage() == WeightMatrix.Storage.MAPPED ?
+        new OffHeapWeightMatrix(rows, columns, matrix.getKernel(), null, false) : WeightMatrix.create(config, null, rows);
+    final double[] row = new double[columns];
+    for(int r = 0; r < rows; r++){
+      matrix.copyRow(r, row);
+      for(int c = 0; c < columns; c++){
+        copy.set(r, c, row[c]);
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Returns the copy of the AdaGrad sums which the bursts train, or null if there are none
+   */
+  static float[][] copy(float[][] sums){
+    if(sums == null) return null;
+    final float[][] copy = new float[sums.length][];
+    for(int i = 0; i < sums.length; i++){
+      if(sums[i] != null) copy[i] = sums[i].clone();
+    }
+    return copy;
+  }
+
+  /**
+   * Returns the largest number of the training threads that the tuning may choose
+   */
+  static int maxThreads(Config config){
+    return Math.max(Runtime.getRuntime().availableProcessors(), config.getNumThreads());
+  }
+
+  private void tuneThreads() throws IOException {
+    final int maxThreads = maxThreads(config);
+    final boolean tuneReaders = config.getReaderThreads() > 0;
+    final long start = System.currentTimeMillis();
+
+    int bestThreads = 0;
+    double best = 0;
+    for(int threads : ladder(maxThreads)){
+      final double wordsPerSec = burst(threads, config.getReaderThreads());
+      if(wordsPerSec < best * MIN_GAIN) break;
+      best = wordsPerSec;
+      bestThreads = threads;
+    }
+    config.setNumThreads(bestThreads);
+
+    if(tuneReaders){
+      int bestReaders = 0;
+      best = 0;
+      for(int readers : ladder(maxThreads)){
+        final double wordsPerSec = burst(bestThreads, readers);
+        if(wordsPerSec < best * MIN_GAIN) break;
+        best = wordsPerSec;
+        bestReaders = readers;
+      }
+      config.setReaderThreads(bestReaders);
+    }
+
+    logger.info("Tuned to {} training threads and {} reader threads, {} words/sec, in {} ms\n",
+        new Object[]{ config.getNumThreads(), config.getReaderThreads(), Math.round(best), System.currentTimeMillis() - start });
+  }
+
+  /**
+   * Returns 1, 2, 4... and the number of the threads at the end
+   */
+  static List<Integer> ladder(int maxThreads){
+    List<Integer> ladder = new ArrayList<Integer>();
+    for(int threads = 1; threads < maxThreads; threads *= 2){
+      ladder.add(threads);
+    }
+    ladder.add(maxThreads);
+    return ladder;
+  }
+
+  /**
+   * Trains the model with the numbers of threads for the burst time and returns the trained words per second.
+   * The words of the first quarter of the burst are not counted while the threads start up.
+   */
+  double burst(int numThreads, int numReaders) throws IOException {
+    config.setNumThreads(numThreads);
+    config.setReaderThreads(numReaders);
+    final int numScheduled = numReaders > 0 ? numReaders : numThreads;
+    vec.alpha = vec.startingAlpha;
+    vec.progress = new ProgressCounter(numThreads);
+    vec.scheduler = new ChunkScheduler(numScheduled, corpus.getNumChunks(numScheduled * CHUNKS_PER_BURST), 1);
+    vec.pipeline = numReaders > 0 ? new SentencePipeline(config, vec.scheduler, numReaders, numThreads) : null;
+    vec.timeStart = System.currentTimeMillis();
+    vec.scheduler.setDeadline(vec.timeStart + burstMillis);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor(new Word2vec.DaemonThreadFactory("w2v-tune-"));
+    try{
+      Future<Void> training = executor.submit(new Callable<Void>(){
+        @Override
+        public Void call() throws IOException {
+          vec.runTrainModelThreads(corpusFactory, corpus);
+          return null;
+        }
+      });
+      // the iteration may end before the burst on a small corpus
+      final boolean ended = await(training, burstMillis / 4);
+      final long words0 = vec.progress.sum(), time0 = System.currentTimeMillis();
+      if(!ended) await(training, vec.timeStart + burstMillis - time0);
+      final long words1 = vec.progress.sum(), time1 = System.currentTimeMillis();
+      training.get();
+
+      final double wordsPerSec = words1 > words0 ? (words1 - words0) * 1000.0 / Math.max(time1 - time0, 1) : 0;
+      logger.info("{} training threads and {} reader threads: {} words/sec\n",
+          new Object[]{ numThreads, numReaders, Math.round(wordsPerSec) });
+      return wordsPerSec;
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while tuning the threads");
+    }
+    catch(ExecutionException e){
+      final Throwable cause = e.getCause();
+      if(cause instanceof IOException) throw (IOException)cause;
+      if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if(cause instanceof Error) throw (Error)cause;
+      throw new RuntimeException(cause);
+    }
+    finally{
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Waits for the training for the time and returns true if it has ended
+   */
+  private static boolean await(Future<Void> training, long millis) throws InterruptedException, ExecutionException {
+    try{
+      training.get(Math.max(millis, 0), TimeUnit.MILLISECONDS);
+      return true;
+    }
+    catch(TimeoutException e){
+      return false;
+    }
+  }
+}
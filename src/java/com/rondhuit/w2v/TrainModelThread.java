@@ -0,0 +1,400 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import static com.rondhuit.w2v.Word2vec.EXP_TABLE_SIZE;
+import static com.rondhuit.w2v.Word2vec.MAX_EXP;
+import static com.rondhuit.w2v.Word2vec.MAX_SENTENCE_LENGTH;
+import static com.rondhuit.w2v.Word2vec.expTable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Reads sentences from the chunks of the corpus which are handed out by the {@link AbstractChunkScheduler},
+ * or takes them from the {@link SentencePipeline} if reader threads are used,
+ * subsamples frequent words and schedules the learning rate, which decays with the trained words,
+ * or with the elapsed time if the training has a time budget.
+ * The network is trained by {@link #trainSentence(int[], int)} which is specialized for
+ * each combination of the architecture (skip-gram or CBOW) and the output layer
+ * (hierarchical softmax and/or negative sampling), so that every thread runs
+ * a small loop without per-word branches on the configuration.
+ */
+abstract class TrainModelThread implements Callable<Void> {
+  final Word2vec vec;
+  final Corpus corpus;
+  final Config config;
+  float alpha;
+  final float startingAlpha;
+  final long trainWords;
+  final int id, vocabSize, layer1Size, window, negative;
+  final long timeStart, resumedWords, resumedMillis, budgetMillis;
+  final NegativeSampler sampler;
+  /**
+   * The Huffman tree of {@link HuffmanTree}, or null without the hierarchical softmax
+   */
+  final int[] codeOffsets, points;
+  final long[] codes;
+  final WeightMatrix syn0, syn1, syn1neg;
+  final ReplicatedWeightMatrix[] replicas;
+  final double[] neu1, neu1e;
+  final FastRandom random;
+  final float[] keepProbability;
+  final ProgressCounter progress;
+  final AbstractChunkScheduler scheduler;
+  long word_count, last_word_count, last_merge_word_count, mergedRequest;
+  /**
+   * The threads of the other models which train the same sentences, see {@link MultiModelTrainer}
+   */
+  TrainModelThread[] coTrainers;
+
+  TrainModelThread(Word2vec vec, Corpus corpus, Config config, int id){
+    this.vec = vec;
+    this.corpus = corpus;
+    this.config = config;
+    this.alpha = vec.alpha;
+    this.startingAlpha = vec.startingAlpha;
+    this.id = id;
+    this.sampler = vec.sampler;
+    this.trainWords = corpus.getTrainWords();
+    this.timeStart = vec.timeStart;
+    this.resumedWords = vec.resumedWords;
+    this.resumedMillis = vec.resumedMillis;
+    this.budgetMillis = config.getTimeBudget() * 1000L;
+    this.vocabSize = corpus.getVocabSize();
+    this.codeOffsets = vec.tree == null ? null : vec.tree.offsets;
+    this.points = vec.tree == null ? null : vec.tree.points;
+    this.codes = vec.tree == null ? null : vec.tree.codes;
+    this.layer1Size = config.getLayer1Size();
+    this.window = config.getWindow();
+    this.negative = config.getNegative();
+    WeightMatrix syn0 = vec.syn0, syn1neg = vec.syn1neg;
+    if(config.getHotRows() > 0){
+      // thread private copies of the hot rows
+      List<ReplicatedWeightMatrix> list = new ArrayList<ReplicatedWeightMatrix>(2);
+      syn0 = replicate(syn0, config.getHotRows(), list);
+      syn1neg = replicate(syn1neg, config.getHotRows(), list);
+      this.replicas = list.toArray(new ReplicatedWeightMatrix[list.size()]);
+    }
+    else{
+      this.replicas = null;
+    }
+    // the optimizer scales the updates before they reach the copies of the hot rows
+    this.syn0 = vec.optimize(syn0, 0);
+    this.syn1 = vec.optimize(vec.syn1, 1);
+    this.syn1neg = vec.optimize(syn1neg, 2);
+    this.neu1 = new double[layer1Size];
+    this.neu1e = new double[layer1Size];
+    this.random = FastRandom.create(config.getRandom(), id);
+    this.keepProbability = corpus.getKeepProbabilities();
+    this.progress = vec.progress;
+    this.scheduler = vec.scheduler;
+  }
+
+  /**
+   * Returns the thread which is specialized for the architecture and the output layer of the config
+   */
+  static TrainModelThread create(Word2vec vec, Corpus corpus, Config config, int id){
+    final boolean hs = config.useHierarchicalSoftmax();
+    final boolean ns = config.getNegative() > 0;
+    if(config.useContinuousBagOfWords()){
+      if(hs && ns) return new CbowThread(vec, corpus, config, id);
+      else if(hs) return new CbowHierarchicalSoftmaxThread(vec, corpus, config, id);
+      else return new CbowNegativeSamplingThread(vec, corpus, config, id);
+    }
+    else if(ns && !hs && config.useMinibatch()){
+      return new SkipGramHogBatchThread(vec, corpus, config, id);
+    }
+    else{
+      if(hs && ns) return new SkipGramThread(vec, corpus, config, id);
+      else if(hs) return new SkipGramHierarchicalSoftmaxThread(vec, corpus, config, id);
+      else return new SkipGramNegativeSamplingThread(vec, corpus, config, id);
+    }
+  }
+
+  public Void call() throws IOException {
+    try{
+      if(vec.pipeline == null) trainChunks();
+      else trainPipeline(vec.pipeline);
+    }
+    finally{
+      // a failed thread does not hold up the checkpoints
+      vec.mergedRequests.set(id, Long.MAX_VALUE);
+      corpus.shutdown();
+    }
+    return null;
+  }
+
+  /**
+   * Reads the chunks from the corpus and trains them
+   */
+  void trainChunks() throws IOException {
+    int word = 0, sentence_length = 0;
+    int[] sen = new int[MAX_SENTENCE_LENGTH + 1];
+
+    int chunk = nextChunk();
+    while(true){
+      reportProgress();
+      if(chunk < 0){    // no chunks are left in this iteration
+        flushProgress();
+        if (!scheduler.awaitNextIteration()) break;
+        acknowledgeMerge(vec.mergeRequest);
+        chunk = nextChunk();
+        continue;
+      }
+      sentence_length = 0;
+      while(true){
+        word = corpus.readWordIndex();
+        if(word == -2) break;                // end of the chunk
+        if(word == -1) continue;
+        word_count++;
+        if (word == -3) break;
+        // The subsampling randomly discards frequent words while keeping the ranking same
+        if (keepProbability != null) {
+          if (keepProbability[word] < (random.next() & 0xFFFF) / 65536F) continue;
+        }
+        sen[sentence_length] = word;
+        sentence_length++;
+        if (sentence_length >= MAX_SENTENCE_LENGTH) break;
+      }
+      trainModels(sen, sentence_length);
+      if(word == -2){
+        scheduler.finish(chunk);
+        chunk = nextChunk();
+      }
+    }
+  }
+
+  /**
+   * Trains the sentences which the reader threads of the pipeline have read
+   */
+  void trainPipeline(SentencePipeline pipeline) throws IOException {
+    while(true){
+      final SentencePipeline.Sentence sentence = pipeline.take();
+      if(sentence == null) break;    // all the iterations have been read
+      word_count += sentence.wordCount;
+      trainModels(sentence.words, sentence.length);
+      pipeline.release(sentence);
+      reportProgress();
+    }
+    flushProgress();
+  }
+
+  /**
+   * Adds the trained words to the progress every 10000 words, prints it and updates the learning rate
+   */
+  final void reportProgress() throws InterruptedIOException {
+    if (word_count - last_word_count > 10000) {
+      final double totalWords = (double)config.getIter() * trainWords;
+      progress.add(id, word_count - last_word_count);
+      last_word_count = word_count;
+      final long wordCountActual = progress.sum();
+      if (Thread.currentThread().isInterrupted()) throw new InterruptedIOException("training has been cancelled");
+      final long request = vec.mergeRequest;
+      if (word_count - last_merge_word_count >= config.getHotRowsMergeInterval() || request > mergedRequest) {
+        mergeReplicas();
+        last_merge_word_count = word_count;
+        acknowledgeMerge(request);
+      }
+      final long timeNow = System.currentTimeMillis();
+      if (budgetMillis > 0) {
+        System.err.printf("%cAlpha: %f  iter: %d  Time: %.2f%%  Words/thread/sec: %.2fk  ", 13, alpha,
+            scheduler.getIteration() + 1,
+            (timeNow - timeStart + resumedMillis) / (double)budgetMillis * 100,
+            (wordCountActual - resumedWords) / (float)(timeNow - timeStart + 1));
+      }
+      else {
+        System.err.printf("%cAlpha: %f  iter: %d  Progress: %.2f%%  Words/thread/sec: %.2fk  ", 13, alpha,
+            config.getIter() - scheduler.getIteration(),
+            wordCountActual / (totalWords + 1) * 100,
+            (wordCountActual - resumedWords) / (float)(timeNow - timeStart + 1));
+      }
+      System.err.flush();
+      alpha = nextAlpha(wordCountActual, totalWords, timeNow);
+      if (coTrainers != null) {
+        // the other models have trained the same words
+        for (TrainModelThread coTrainer : coTrainers) {
+          coTrainer.alpha = coTrainer.nextAlpha(wordCountActual, totalWords, timeNow);
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the rest of the trained words to the progress and merges the hot rows. The thread has nothing
+   * to merge for the checkpoints until it trains again.
+   */
+  final void flushProgress(){
+    progress.add(id, word_count - last_word_count);
+    last_word_count = word_count;
+    mergeReplicas();
+    vec.mergedRequests.set(id, Long.MAX_VALUE);
+  }
+
+  /**
+   * Tells {@link Word2vec#awaitMergedReplicas()} that the updates of the thread until the request are merged
+   */
+  final void acknowledgeMerge(long request){
+    mergedRequest = request;
+    vec.mergedRequests.set(id, request);
+  }
+
+  /**
+   * Returns the learning rate of the progress, which is the elapsed time of the budget if the training has one
+   */
+  final float nextAlpha(long wordCountActual, double totalWords, long timeNow){
+    return scheduleAlpha(config, startingAlpha, wordCountActual, totalWords, timeNow - timeStart + resumedMillis);
+  }
+
+  /**
+   * Returns the learning rate of the config for the progress
+   * @param elapsedMillis the training time including the time before the resume
+   */
+  static float scheduleAlpha(Config config, float startingAlpha, long wordCountActual, double totalWords, long elapsedMillis){
+    // AdaGrad decays the learning rate of every row by itself
+    if (config.getOptimizer() == WeightMatrix.Optimizer.ADAGRAD) return startingAlpha;
+    if (config.getTimeBudget() > 0) return scheduleAlpha(startingAlpha, elapsedMillis, config.getTimeBudget() * 1000.0);
+    return scheduleAlpha(startingAlpha, wordCountActual, totalWords);
+  }
+
+  /**
+   * Returns the learning rate which decays linearly with the number of the trained words
+   * (or with any other measure of the progress such as the elapsed time)
+   */
+  static float scheduleAlpha(float startingAlpha, long wordCountActual, double totalWords){
+    final float alpha = (float)(startingAlpha * (1 - wordCountActual / (totalWords + 1)));
+    return alpha < startingAlpha * 0.0001 ? startingAlpha * 0.0001F : alpha;
+  }
+
+  static WeightMatrix replicate(WeightMatrix shared, int hotRows, List<ReplicatedWeightMatrix> replicas){
+    if(shared == null) return null;
+    ReplicatedWeightMatrix replica = new ReplicatedWeightMatrix(shared, hotRows);
+    replicas.add(replica);
+    return replica;
+  }
+
+  final void mergeReplicas(){
+    if(replicas != null){
+      for(ReplicatedWeightMatrix replica : replicas){
+        replica.merge();
+      }
+    }
+    if(coTrainers != null){
+      for(TrainModelThread coTrainer : coTrainers){
+        coTrainer.mergeReplicas();
+      }
+    }
+  }
+
+  /**
+   * Takes the next chunk from the scheduler and positions the corpus at its start
+   * @return the chunk, or -1 if no chunks are left in the current iteration
+   */
+  int nextChunk() throws IOException {
+    final int chunk = scheduler.nextChunk(id);
+    if(chunk >= 0) corpus.seekChunk(chunk, scheduler.getNumChunks());
+    return chunk;
+  }
+
+  /**
+   * Trains the network with every word of the sentence
+   */
+  abstract void trainSentence(int[] sen, int sentenceLength);
+
+  /**
+   * Trains the sentence on this model and on the models of the co-trainers
+   */
+  final void trainModels(int[] sen, int sentenceLength){
+    trainSentence(sen, sentenceLength);
+    if (coTrainers != null) {
+      for (TrainModelThread coTrainer : coTrainers) {
+        coTrainer.trainSentence(sen, sentenceLength);
+      }
+    }
+  }
+
+  /**
+   * Returns the random window shrink for the next word, from 0 to window - 1
+   */
+  final int nextWindowShrink(){
+    return windowShrink(random.next(), window);
+  }
+
+  /**
+   * The random value is taken as unsigned like the C code, so that the window never grows past 2 * window
+   */
+  static int windowShrink(long random, int window){
+    return (int)((random >>> 1) % window);
+  }
+
+  final void clear(double[] v){
+    for (int c = 0; c < layer1Size; c++) v[c] = 0;
+  }
+
+  /**
+   * Propagates neu1 to the inner nodes of the Huffman tree of the word and
+   * accumulates the errors into neu1e
+   */
+  final void hierarchicalSoftmax(int word){
+    final int end = codeOffsets[word + 1];
+    double f, g;
+    for (int p = codeOffsets[word]; p < end; p++) {
+      final int l2 = points[p];
+      // Propagate hidden -> output
+      f = syn1.dot(l2, neu1);
+      if (f <= -MAX_EXP) continue;
+      else if (f >= MAX_EXP) continue;
+      else f = expTable[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
+      // 'g' is the gradient multiplied by the learning rate
+      g = (1 - ((int)(codes[p >>> 6] >>> p) & 1) - f) * alpha;
+      // Propagate errors output -> hidden
+      syn1.accumulate(l2, g, neu1e);
+      // Learn weights hidden -> output
+      syn1.update(l2, g, neu1);
+    }
+  }
+
+  /**
+   * Propagates neu1 to the word and the negative samples and
+   * accumulates the errors into neu1e
+   */
+  final void negativeSampling(int word){
+    int target, label;
+    double f, g;
+    for (int d = 0; d < negative + 1; d++) {
+      if (d == 0) {
+        target = word;
+        label = 1;
+      } else {
+        target = sampler.sample(random.next());
+        if (target == word) continue;
+        label = 0;
+      }
+      f = syn1neg.dot(target, neu1);
+      if (f > MAX_EXP) g = (label - 1) * alpha;
+      else if (f < -MAX_EXP) g = (label - 0) * alpha;
+      else g = (label - expTable[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))]) * alpha;
+      syn1neg.accumulate(target, g, neu1e);
+      syn1neg.update(target, g, neu1);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+/**
+ * The negative sampler of the original C tool. Every word occupies the number of
+ * slots of the table proportional to its probability.
+ */
+public final class UnigramTableSampler extends NegativeSampler {
+
+  static final int TABLE_SIZE          = 100000000;
+
+  private final int vocabSize;
+  private final int[] table;
+
+  public UnigramTableSampler(VocabWord[] vocab, int vocabSize){
+    this(vocab, vocabSize, TABLE_SIZE);
+  }
+
+  /**
+   * @param tableSize the number of the slots, which is smaller than {@link #TABLE_SIZE} in the tests
+   */
+  UnigramTableSampler(VocabWord[] vocab, int vocabSize, int tableSize){
+    this.vocabSize = vocabSize;
+    long trainWordsPow = 0;
+    double d1;
+    table = new int[tableSize];
+    for(int i = 0; i < vocabSize; i++){
+      trainWordsPow += Math.pow(vocab[i].cn, POWER);
+    }
+    int i = 0;
+    d1 = Math.pow(vocab[i].cn, POWER) / (double)trainWordsPow;
+    for(int j = 0; j < tableSize; j++){
+      table[j] = i;
+      if((double)j / (double)tableSize > d1) {
+        i++;
+        d1 += Math.pow(vocab[i].cn, POWER) / (double)trainWordsPow;
+      }
+      if (i >= vocabSize)
+        i = vocabSize - 1;
+    }
+  }
+
+  @Override
+  public int sample(long random){
+    int target = table[Math.abs((int)((random >> 16) % table.length))];
+    if (target == 0) target = replaceEndOfSentence(random, vocabSize);
+    return target;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Plain scalar code with the dot products unrolled by {@link VectorKernel#UNROLL}. This is not a SIMD kernel.
+ * The dot products use independent partial sums, which breaks the dependency chain of a single accumulator;
+ * the JIT compiler cannot do that itself since it keeps the order of the floating point additions.
+ * The element-wise loops of accumulate and update are inherited as they are, because the JIT compiler
+ * vectorizes those plain loops and unrolling them by hand measured slower
+ * (see {@link com.rondhuit.w2v.demo.VectorKernelBenchmark}).
+ */
+public class UnrolledVectorKernel extends ScalarVectorKernel {
+
+  @Override
+  public double dot(double[] x, double[] w, int off, int n){
+    double f0 = 0, f1 = 0, f2 = 0, f3 = 0;
+    final int m = n - n % UNROLL;
+    int c = 0;
+    for(; c < m; c += UNROLL){
+      f0 += x[c] * w[c + off];
+      f1 += x[c + 1] * w[c + off + 1];
+      f2 += x[c + 2] * w[c + off + 2];
+      f3 += x[c + 3] * w[c + off + 3];
+    }
+    for(; c < n; c++) f0 += x[c] * w[c + off];
+    return (f0 + f1) + (f2 + f3);
+  }
+
+  @Override
+  public double dot(double[] x, float[] w, int off, int n){
+    double f0 = 0, f1 = 0, f2 = 0, f3 = 0;
+    final int m = n - n % UNROLL;
+    int c = 0;
+    for(; c < m; c += UNROLL){
+      f0 += x[c] * w[c + off];
+      f1 += x[c + 1] * w[c + off + 1];
+      f2 += x[c + 2] * w[c + off + 2];
+      f3 += x[c + 3] * w[c + off + 3];
+    }
+    for(; c < n; c++) f0 += x[c] * w[c + off];
+    return (f0 + f1) + (f2 + f3);
+  }
+
+  @Override
+  public double dot(double[] x, FloatBuffer w, int off, int n){
+    double f0 = 0, f1 = 0, f2 = 0, f3 = 0;
+    final int m = n - n % UNROLL;
+    int c = 0;
+    for(; c < m; c += UNROLL){
+      f0 += x[c] * w.get(c + off);
+      f1 += x[c + 1] * w.get(c + off + 1);
+      f2 += x[c + 2] * w.get(c + off + 2);
+      f3 += x[c + 3] * w.get(c + off + 3);
+    }
+    for(; c < n; c++) f0 += x[c] * w.get(c + off);
+    return (f0 + f1) + (f2 + f3);
+  }
+}
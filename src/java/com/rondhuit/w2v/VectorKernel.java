@@ -0,0 +1,133 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dense vector operations of the training loop. x and y are the scratch vectors of a training thread
+ * and w is the storage of a {@link WeightMatrix} where the row starts at off.
+ * <ul>
+ * <li>dot: returns x . w</li>
+ * <li>accumulate: y += g * w</li>
+ * <li>update: w += g * x</li>
+ * </ul>
+ */
+public abstract class VectorKernel {
+
+  private static Logger logger = LoggerFactory.getLogger(VectorKernel.class);
+
+  /**
+   * Kernel implementations, both plain Java code. AUTO times the dot products of SCALAR and UNROLLED
+   * on the vector size once at startup and picks the faster one, since which one wins depends on the CPU
+   * (see {@link com.rondhuit.w2v.demo.VectorKernelBenchmark})
+   */
+  public static enum Type {
+    AUTO, SCALAR, UNROLLED
+  }
+
+  /**
+   * The unrolled kernel processes this many elements per loop of the dot products
+   */
+  static final int UNROLL = 4;
+
+  /**
+   * The calibration alternates the kernels in ROUNDS rounds of CALIBRATION_MILLIS in total, after a round to warm up
+   */
+  static final int ROUNDS = 4;
+  static final long CALIBRATION_MILLIS = 40;
+  static final long WARMUP_MILLIS = 50;
+  static final int CALIBRATION_ROWS = 1024;
+
+  private static final Map<Integer, Type> calibrated = new HashMap<Integer, Type>();
+
+  public static VectorKernel getInstance(Type type, int n){
+    if(type == Type.AUTO) type = calibrate(n);
+    return type == Type.UNROLLED ? new UnrolledVectorKernel() : new ScalarVectorKernel();
+  }
+
+  /**
+   * Returns the faster kernel of the dot products of the vector size. The result is kept for the size,
+   * so that every matrix of a model uses the same kernel.
+   */
+  static synchronized Type calibrate(int n){
+    Type type = calibrated.get(n);
+    if(type != null) return type;
+
+    final Random random = new Random(1);
+    final double[] dw = new double[CALIBRATION_ROWS * n];
+    final float[] fw = new float[CALIBRATION_ROWS * n];
+    for(int i = 0; i < dw.length; i++){
+      dw[i] = fw[i] = (random.nextFloat() - 0.5F) / n;
+    }
+    final double[] x = new double[n];
+    for(int i = 0; i < n; i++) x[i] = random.nextDouble() - 0.5;
+
+    final VectorKernel[] kernels = { new ScalarVectorKernel(), new UnrolledVectorKernel() };
+    final double[] best = { Double.MAX_VALUE, Double.MAX_VALUE };
+    for(int round = 0; round <= ROUNDS; round++){
+      // the rounds alternate the kernels and round 0 warms up
+      for(int k = 0; k < kernels.length; k++){
+        final double ns = time(kernels[k], dw, fw, x, n, round == 0 ? WARMUP_MILLIS : CALIBRATION_MILLIS / ROUNDS / 2);
+        if(round > 0) best[k] = Math.min(best[k], ns);
+      }
+    }
+    type = best[1] < best[0] ? Type.UNROLLED : Type.SCALAR;
+    logger.info(String.format("vector kernel for size %d: %s (scalar %.1f ns, unrolled %.1f ns per row)", n, type, best[0], best[1]));
+    calibrated.put(n, type);
+    return type;
+  }
+
+  /**
+   * Returns the nanoseconds of the dot products of a double and a float row
+   */
+  static double time(VectorKernel kernel, double[] dw, float[] fw, double[] x, int n, long millis){
+    final long start = System.nanoTime(), end = start + millis * 1000000L;
+    long now, count = 0;
+    double sink = 0;
+    do{
+      for(int r = 0; r < CALIBRATION_ROWS; r++){
+        sink += kernel.dot(x, dw, r * n, n);
+        sink += kernel.dot(x, fw, r * n, n);
+      }
+      count += CALIBRATION_ROWS;
+      now = System.nanoTime();
+    } while(now < end);
+    if(sink == 42) logger.trace("");      // keeps the results alive
+    return (double)(now - start) / count;
+  }
+
+  public abstract double dot(double[] x, double[] w, int off, int n);
+  public abstract double dot(double[] x, float[] w, int off, int n);
+  public abstract double dot(double[] x, FloatBuffer w, int off, int n);
+
+  public abstract void accumulate(double[] w, int off, double g, double[] y, int n);
+  public abstract void accumulate(float[] w, int off, double g, double[] y, int n);
+  public abstract void accumulate(FloatBuffer w, int off, double g, double[] y, int n);
+
+  public abstract void update(double[] w, int off, double g, double[] x, int n);
+  public abstract void update(float[] w, int off, double g, double[] x, int n);
+  public abstract void update(FloatBuffer w, int off, double g, double[] x, int n);
+}
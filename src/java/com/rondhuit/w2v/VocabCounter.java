@@ -0,0 +1,277 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the words of a range of a text file into an open-addressing table of the bytes of the words,
+ * without a String or a boxed count per word. The words are split the same way as
+ * {@link TextFileCorpus#readWord(RandomAccessFile)} does, i.e. the bytes of a line are trimmed and split
+ * at the white spaces, a blank line is the empty word and every line counts an end of sentence.
+ * The table keeps the words in the order of their first appearance, so that the counters of the
+ * consecutive ranges of a file can be merged into the counts of the whole file in the same order.
+ */
+final class VocabCounter {
+
+  static final int BUFFER_SIZE         = 1024 * 1024;
+
+  /** {@link RandomAccessFile#readLine()} turns every byte into a char */
+  static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+  private int[] slots = new int[1024];       // entry + 1, or 0 if empty
+  private int[] hashes = new int[512];
+  private int[] starts = new int[512];
+  private int[] lengths = new int[512];
+  private long[] counts = new long[512];
+  private byte[] bytes = new byte[4096];
+  private int size, used;
+
+  private final int maxSize;
+  private int minReduce = 1;
+  private long lines, words;
+
+  /**
+   * @param maxSize the number of words to reduce the table at by removing the infrequent words
+   */
+  VocabCounter(int maxSize){
+    this.maxSize = maxSize;
+  }
+
+  int size(){
+    return size;
+  }
+
+  /**
+   * Returns the number of the lines, i.e. the count of the end of sentence
+   */
+  long getLines(){
+    return lines;
+  }
+
+  /**
+   * Returns the number of the words excluding the ends of sentence
+   */
+  long getWords(){
+    return words;
+  }
+
+  long getCount(int entry){
+    return counts[entry];
+  }
+
+  String getWord(int entry){
+    return new String(bytes, starts[entry], lengths[entry], LATIN1);
+  }
+
+  /**
+   * Counts the lines which start in the range of the file. The line which starts before the range
+   * and ends in it is skipped like {@link TextFileCorpus#seekChunk(int, int)} does.
+   * @param progress the number of the words counted by all the counters, which is shown after every buffer
+   */
+  void count(RandomAccessFile raf, long start, long end, AtomicLong progress) throws IOException {
+    final byte[] buf = new byte[BUFFER_SIZE];
+    byte[] line = new byte[256];
+    int lineLen = 0;
+    long reported = words;
+    long base = start == 0 ? 0 : start - 1;
+    long lineStart = base;
+    boolean skip = start > 0, afterCR = false;
+    raf.seek(base);
+    while(true){
+      final int n = raf.read(buf);
+      if(n <= 0) break;
+      int s = 0;
+      for(int i = 0; i < n; i++){
+        final byte b = buf[i];
+        if(afterCR){
+          afterCR = false;
+          if(b == '\n'){
+            s = i + 1;
+            lineStart = base + s;
+            if(lineStart >= end) return;
+            continue;
+          }
+          if(lineStart >= end) return;
+        }
+        if(b != '\n' && b != '\r') continue;
+        if(skip){
+          skip = false;
+        }
+        else if(lineLen > 0){
+          line = append(line, lineLen, buf, s, i - s);
+          countLine(line, 0, lineLen + i - s);
+        }
+        else{
+          countLine(buf, s, i - s);
+        }
+        lineLen = 0;
+        afterCR = b == '\r';
+        s = i + 1;
+        lineStart = base + s;
+        if(lineStart >= end && !afterCR) return;
+      }
+      line = append(line, lineLen, buf, s, n - s);
+      lineLen += n - s;
+      base += n;
+      final long total = progress.addAndGet(words - reported);
+      reported = words;
+      System.err.printf("%dK%c", total / 1000, 13);
+    }
+    // the last line of the file without the line separator
+    if(lineStart < base && !skip){
+      countLine(line, 0, lineLen);
+    }
+  }
+
+  private static byte[] append(byte[] line, int lineLen, byte[] buf, int off, int len){
+    if(lineLen + len > line.length){
+      line = Arrays.copyOf(line, Math.max(line.length * 2, lineLen + len));
+    }
+    System.arraycopy(buf, off, line, lineLen, len);
+    return line;
+  }
+
+  private void countLine(byte[] b, int off, int len){
+    lines++;
+    // String.trim() removes the control characters as well as the spaces
+    int s = off, e = off + len;
+    while(s < e && (b[s] & 0xff) <= ' ') s++;
+    while(e > s && (b[e - 1] & 0xff) <= ' ') e--;
+    if(s == e){
+      add(b, s, 0, 1);
+      return;
+    }
+    while(s < e){
+      int t = s;
+      while(t < e && !isSpace(b[t])) t++;
+      add(b, s, t - s, 1);
+      while(t < e && isSpace(b[t])) t++;
+      s = t;
+    }
+  }
+
+  /**
+   * The white spaces of the regular expression \s
+   */
+  private static boolean isSpace(byte b){
+    return b == ' ' || b == '\t' || b == 0x0B || b == '\f';
+  }
+
+  /**
+   * Adds all the words of the other counter in their order
+   */
+  void merge(VocabCounter other){
+    for(int i = 0; i < other.size; i++){
+      add(other.bytes, other.starts[i], other.lengths[i], other.counts[i]);
+    }
+    lines += other.lines;
+  }
+
+  void add(byte[] b, int off, int len, long count){
+    words += count;
+    int h = 0x811C9DC5;
+    for(int i = off; i < off + len; i++){
+      h = (h ^ b[i]) * 0x01000193;
+    }
+    h ^= h >>> 16;
+    final int mask = slots.length - 1;
+    for(int p = h & mask; ; p = (p + 1) & mask){
+      final int entry = slots[p] - 1;
+      if(entry < 0){
+        slots[p] = insert(h, b, off, len, count) + 1;
+        break;
+      }
+      if(hashes[entry] == h && equals(entry, b, off, len)){
+        counts[entry] += count;
+        return;
+      }
+    }
+    if(size > maxSize){
+      reduce();
+    }
+    else if(size * 2 > slots.length){
+      rehash(slots.length * 2);
+    }
+  }
+
+  private boolean equals(int entry, byte[] b, int off, int len){
+    if(lengths[entry] != len) return false;
+    final int start = starts[entry];
+    for(int i = 0; i < len; i++){
+      if(bytes[start + i] != b[off + i]) return false;
+    }
+    return true;
+  }
+
+  private int insert(int h, byte[] b, int off, int len, long count){
+    if(size == hashes.length){
+      final int capacity = size * 2;
+      hashes = Arrays.copyOf(hashes, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      counts = Arrays.copyOf(counts, capacity);
+    }
+    if(used + len > bytes.length){
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + len));
+    }
+    System.arraycopy(b, off, bytes, used, len);
+    hashes[size] = h;
+    starts[size] = used;
+    lengths[size] = len;
+    counts[size] = count;
+    used += len;
+    return size++;
+  }
+
+  private void rehash(int capacity){
+    slots = new int[capacity];
+    final int mask = capacity - 1;
+    for(int i = 0; i < size; i++){
+      int p = hashes[i] & mask;
+      while(slots[p] != 0) p = (p + 1) & mask;
+      slots[p] = i + 1;
+    }
+  }
+
+  /**
+   * Reduces the table by removing the infrequent words, raising the threshold every time
+   */
+  void reduce(){
+    int j = 0, u = 0;
+    for(int i = 0; i < size; i++){
+      if(counts[i] > minReduce){
+        System.arraycopy(bytes, starts[i], bytes, u, lengths[i]);
+        hashes[j] = hashes[i];
+        starts[j] = u;
+        lengths[j] = lengths[i];
+        counts[j] = counts[i];
+        u += lengths[i];
+        j++;
+      }
+    }
+    size = j;
+    used = u;
+    rehash(slots.length);
+    minReduce++;
+  }
+}
@@ -0,0 +1,249 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+/**
+ * Immutable dictionary from the words of a sorted vocabulary to their positions. The words are packed
+ * into one array of UTF-8 bytes and looked up in an open-addressing table of int positions, so that
+ * a word costs some 20 bytes besides its bytes instead of a map entry and a boxed Integer.
+ * It has no mutable state and a single instance is shared by the corpora of all the threads.
+ * The lookup takes a String, a slice of chars or a slice of UTF-8 bytes without making any object.
+ * <p>
+ * An unpaired surrogate is encoded in 3 bytes like the other chars, so that no two words have the
+ * same bytes. The null word, which is the end of sentence, has its own position.
+ */
+public final class VocabDictionary {
+
+  private final byte[] bytes;
+  private final int[] offsets;
+  private final int[] slots;     // position + 1, or 0 if empty
+  private final int mask;
+  private final int nullIndex;
+
+  /**
+   * @param vocab the words, of which the position in the array is the value of the word
+   * @param size the number of the words
+   */
+  public VocabDictionary(VocabWord[] vocab, int size){
+    offsets = new int[size + 1];
+    int nullPos = -1;
+    for(int i = 0; i < size; i++){
+      final String word = vocab[i].word;
+      if(word == null) nullPos = i;
+      offsets[i + 1] = offsets[i] + (word == null ? 0 : encodedLength(word));
+    }
+    nullIndex = nullPos;
+    bytes = new byte[offsets[size]];
+    for(int i = 0; i < size; i++){
+      if(vocab[i].word != null) encode(vocab[i].word, bytes, offsets[i]);
+    }
+
+    int capacity = 16;
+    while(capacity < size * 2) capacity *= 2;
+    slots = new int[capacity];
+    mask = capacity - 1;
+    for(int i = 0; i < size; i++){
+      if(i == nullIndex) continue;
+      int p = hash(bytes, offsets[i], offsets[i + 1] - offsets[i]) & mask;
+      while(slots[p] != 0 && !equals(slots[p] - 1, bytes, offsets[i], offsets[i + 1] - offsets[i])){
+        p = (p + 1) & mask;
+      }
+      // the first of the same words wins
+      if(slots[p] == 0) slots[p] = i + 1;
+    }
+  }
+
+  public int size(){
+    return offsets.length - 1;
+  }
+
+  /**
+   * Returns the position of the word, or -1 if it is not in the dictionary
+   * @param word the word, or null for the end of sentence
+   */
+  public int get(CharSequence word){
+    if(word == null) return nullIndex;
+    for(int p = hash(word) & mask; ; p = (p + 1) & mask){
+      final int pos = slots[p] - 1;
+      if(pos < 0 || equals(pos, word)) return pos;
+    }
+  }
+
+  /**
+   * Returns the position of the word in the slice of the chars, or -1 if it is not in the dictionary
+   */
+  public int get(char[] chars, int off, int len){
+    for(int p = hash(chars, off, len) & mask; ; p = (p + 1) & mask){
+      final int pos = slots[p] - 1;
+      if(pos < 0 || equals(pos, chars, off, len)) return pos;
+    }
+  }
+
+  /**
+   * Returns the position of the word in the slice of the UTF-8 bytes, or -1 if it is not in the dictionary
+   */
+  public int get(byte[] utf8, int off, int len){
+    for(int p = hash(utf8, off, len) & mask; ; p = (p + 1) & mask){
+      final int pos = slots[p] - 1;
+      if(pos < 0 || equals(pos, utf8, off, len)) return pos;
+    }
+  }
+
+  /**
+   * Returns the bytes of the words and the tables
+   */
+  public long ramBytesUsed(){
+    return bytes.length + 4L * (offsets.length + slots.length);
+  }
+
+  private boolean equals(int pos, byte[] b, int off, int len){
+    final int start = offsets[pos];
+    if(offsets[pos + 1] - start != len) return false;
+    for(int i = 0; i < len; i++){
+      if(bytes[start + i] != b[off + i]) return false;
+    }
+    return true;
+  }
+
+  private boolean equals(int pos, CharSequence word){
+    final int end = offsets[pos + 1];
+    final int len = word.length();
+    int b = offsets[pos];
+    for(int i = 0; i < len; ){
+      final int c = codePointAt(word, i, len);
+      final int n = utf8Length(c);
+      if(end - b < n) return false;
+      for(int j = 0; j < n; j++){
+        if((bytes[b++] & 0xff) != utf8Byte(c, n, j)) return false;
+      }
+      i += c > 0xFFFF ? 2 : 1;
+    }
+    return b == end;
+  }
+
+  private boolean equals(int pos, char[] chars, int off, int len){
+    final int end = offsets[pos + 1];
+    int b = offsets[pos];
+    for(int i = off; i < off + len; ){
+      final int c = codePointAt(chars, i, off + len);
+      final int n = utf8Length(c);
+      if(end - b < n) return false;
+      for(int j = 0; j < n; j++){
+        if((bytes[b++] & 0xff) != utf8Byte(c, n, j)) return false;
+      }
+      i += c > 0xFFFF ? 2 : 1;
+    }
+    return b == end;
+  }
+
+  private static int hash(byte[] b, int off, int len){
+    int h = 0x811C9DC5;
+    for(int i = off; i < off + len; i++){
+      h = (h ^ (b[i] & 0xff)) * 0x01000193;
+    }
+    return h ^ h >>> 16;
+  }
+
+  /**
+   * The same as the hash of the encoded bytes
+   */
+  private static int hash(CharSequence word){
+    final int len = word.length();
+    int h = 0x811C9DC5;
+    for(int i = 0; i < len; ){
+      final int c = codePointAt(word, i, len);
+      final int n = utf8Length(c);
+      for(int j = 0; j < n; j++){
+        h = (h ^ utf8Byte(c, n, j)) * 0x01000193;
+      }
+      i += c > 0xFFFF ? 2 : 1;
+    }
+    return h ^ h >>> 16;
+  }
+
+  private static int hash(char[] chars, int off, int len){
+    int h = 0x811C9DC5;
+    for(int i = off; i < off + len; ){
+      final int c = codePointAt(chars, i, off + len);
+      final int n = utf8Length(c);
+      for(int j = 0; j < n; j++){
+        h = (h ^ utf8Byte(c, n, j)) * 0x01000193;
+      }
+      i += c > 0xFFFF ? 2 : 1;
+    }
+    return h ^ h >>> 16;
+  }
+
+  static int encodedLength(CharSequence word){
+    final int len = word.length();
+    int length = 0;
+    for(int i = 0; i < len; ){
+      final int c = codePointAt(word, i, len);
+      length += utf8Length(c);
+      i += c > 0xFFFF ? 2 : 1;
+    }
+    return length;
+  }
+
+  static int encode(CharSequence word, byte[] dst, int off){
+    final int len = word.length();
+    for(int i = 0; i < len; ){
+      final int c = codePointAt(word, i, len);
+      final int n = utf8Length(c);
+      for(int j = 0; j < n; j++){
+        dst[off++] = (byte)utf8Byte(c, n, j);
+      }
+      i += c > 0xFFFF ? 2 : 1;
+    }
+    return off;
+  }
+
+  /**
+   * Returns the code point of the surrogate pair at i, or the char at i
+   */
+  private static int codePointAt(CharSequence word, int i, int len){
+    final char c = word.charAt(i);
+    if(Character.isHighSurrogate(c) && i + 1 < len){
+      final char d = word.charAt(i + 1);
+      if(Character.isLowSurrogate(d)) return Character.toCodePoint(c, d);
+    }
+    return c;
+  }
+
+  private static int codePointAt(char[] chars, int i, int end){
+    final char c = chars[i];
+    if(Character.isHighSurrogate(c) && i + 1 < end){
+      final char d = chars[i + 1];
+      if(Character.isLowSurrogate(d)) return Character.toCodePoint(c, d);
+    }
+    return c;
+  }
+
+  private static int utf8Length(int c){
+    return c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+  }
+
+  /**
+   * Returns the j-th byte of the n bytes of the code point
+   */
+  private static int utf8Byte(int c, int n, int j){
+    if(n == 1) return c;
+    final int shift = 6 * (n - 1 - j);
+    return j == 0 ? (0xFF00 >> n & 0xFF) | c >>> shift : 0x80 | (c >>> shift & 0x3F);
+  }
+}
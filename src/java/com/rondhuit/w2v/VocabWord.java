@@ -17,41 +17,26 @@
 
 package com.rondhuit.w2v;
 
+/**
+ * A word of the vocabulary and its count. The Huffman codes of the words are kept
+ * apart in a {@link HuffmanTree}, which is only built for the hierarchical softmax.
+ */
 public class VocabWord {
-  
-  public static final int MAX_CODE_LENGTH     = 40;
 
-  int cn, codelen;
-  int[] point;
+  long cn;
   String word;
-  char[] code;
   
   public VocabWord(String word){
     this.word = word;
     cn = 0;
-    point = new int[MAX_CODE_LENGTH];
-    code = new char[MAX_CODE_LENGTH];
   }
   
-  public void setCn(int cn){
+  public void setCn(long cn){
     this.cn = cn;
   }
   
   @Override
   public String toString(){
-    StringBuilder sb = new StringBuilder();
-    sb.append(String.format("[%s] cn=%d, codelen=%d, ", word, cn, codelen));
-    sb.append("code=(");
-    for(int i = 0; i < codelen; i++){
-      if(i>0) sb.append(',');
-      sb.append(code[i]);
-    }
-    sb.append("), point=(");
-    for(int i = 0; i < codelen; i++){
-      if(i>0) sb.append(',');
-      sb.append(point[i]);
-    }
-    sb.append(")");
-    return sb.toString();
+    return String.format("[%s] cn=%d", word, cn);
   }
 }
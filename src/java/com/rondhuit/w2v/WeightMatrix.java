@@ -0,0 +1,125 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Row oriented storage of a (rows x columns) weight matrix such as syn0, syn1 and syn1neg.
+ * The training threads only touch the weights through the row operations below so that
+ * the storage precision can be chosen independently of the training code.
+ */
+public abstract class WeightMatrix {
+
+  protected final int rows, columns;
+  protected final VectorKernel kernel;
+
+  protected WeightMatrix(int rows, int columns, VectorKernel kernel){
+    this.rows = rows;
+    this.columns = columns;
+    this.kernel = kernel;
+  }
+
+  /**
+   * Where the weights are stored
+   */
+  public static enum Storage {
+    /** Java arrays on the heap. The number of elements is limited to Integer.MAX_VALUE */
+    HEAP,
+    /** direct buffers outside of the heap */
+    DIRECT,
+    /** files mapped in memory under {@link Config#getWeightsDir()} */
+    MAPPED
+  }
+
+  /**
+   * How the training threads scale the updates of the rows
+   */
+  public static enum Optimizer {
+    /** the learning rate of the progress, which is the same for every row */
+    SGD,
+    /** the starting alpha divided by the root of the sum of the squared gradients of the row, see {@link AdaGradWeightMatrix} */
+    ADAGRAD
+  }
+
+  public static WeightMatrix create(Config config, String name, int rows) throws IOException {
+    final int columns = config.getLayer1Size();
+    final VectorKernel kernel = VectorKernel.getInstance(config.getVectorKernel(), columns);
+    switch(config.getWeightStorage()){
+    case DIRECT:
+      return new OffHeapWeightMatrix(rows, columns, kernel, null, config.usePreTouch());
+    case MAPPED:
+      return new OffHeapWeightMatrix(rows, columns, kernel,
+          new File(config.getWeightsDir(), name + ".bin"), config.usePreTouch());
+    default:
+      if(config.useSinglePrecision())
+        return new FloatArrayWeightMatrix(rows, columns, kernel);
+      else
+        return new DoubleArrayWeightMatrix(rows, columns, kernel);
+    }
+  }
+
+  public VectorKernel getKernel(){
+    return kernel;
+  }
+
+  public int getRows(){
+    return rows;
+  }
+
+  public int getColumns(){
+    return columns;
+  }
+
+  public abstract double get(int row, int column);
+
+  public abstract void set(int row, int column, double value);
+
+  /**
+   * Returns the dot product of the row and x
+   */
+  public abstract double dot(int row, double[] x);
+
+  /**
+   * Adds g * row to y
+   */
+  public abstract void accumulate(int row, double g, double[] y);
+
+  /**
+   * Adds g * x to the row
+   */
+  public abstract void update(int row, double g, double[] x);
+
+  /**
+   * Copies the row to y
+   */
+  public abstract void copyRow(int row, double[] y);
+
+  /**
+   * Returns the array size which is rounded up to a multiple of 128 elements
+   */
+  static int alignedSize(int rows, int columns){
+    final long size = (long)rows * columns;
+    final long aligned = (size + 127) / 128 * 128;
+    if(aligned > Integer.MAX_VALUE)
+      throw new IllegalArgumentException(String.format("too many weights for a Java array: %d x %d. use off-heap storage instead", rows, columns));
+    return (int)aligned;
+  }
+}
@@ -17,14 +17,26 @@
 
 package com.rondhuit.w2v;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.Comparator;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,13 +47,29 @@ public class Word2vec {
 
   static final int EXP_TABLE_SIZE      = 1000;
   static final int MAX_EXP             = 6;
-  static final int TABLE_SIZE          = 100000000;
   static final int MAX_SENTENCE_LENGTH = 1000;
   static final Charset ENCODING = Charset.forName("UTF-8");
 
-  long timeStart;
-  static double[] syn0, syn1, syn1neg;
-  int[] table;
+  static final long MERGE_TIMEOUT_MILLIS = 60000;
+
+  long timeStart, trainingMillis, resumedWords, resumedMillis;
+  float startingAlpha, alpha;
+  ProgressCounter progress = new ProgressCounter(1);
+  AbstractChunkScheduler scheduler;
+  SentencePipeline pipeline;
+  ParameterClient client;
+  SharedJob job;
+  WeightMatrix syn0, syn1, syn1neg;
+  HuffmanTree tree;
+  float[][] adaGradSums;
+  Word2vec[] coModels;
+  NegativeSampler sampler;
+  /**
+   * The last request to merge the copies of the hot rows, and the last request which each training thread
+   * has merged (Long.MAX_VALUE while it has nothing to merge), see {@link #awaitMergedReplicas()}
+   */
+  volatile long mergeRequest;
+  AtomicLongArray mergedRequests = new AtomicLongArray(0);
   
   private final Config config;
   
@@ -64,270 +92,270 @@ public class Word2vec {
     return config;
   }
   
-  static class TrainModelThread extends Thread {
-    final Word2vec vec;
-    final Corpus corpus;
-    final Config config;
-    float alpha;
-    final float startingAlpha;
-    final float trainWords;    // #19
-    final int id, vocabSize;
-    final long timeStart;
-    final int[] table;
-    final VocabWord[] vocab;
-    static int wordCountActual = 0;
-    
-    public TrainModelThread(Word2vec vec, Corpus corpus, Config config, int id){
-      this.vec = vec;
-      this.corpus = corpus;
-      this.config = config;
-      this.alpha = config.getAlpha();
-      this.startingAlpha = alpha;
-      this.id = id;
-      this.table = vec.table;
-      this.trainWords = corpus.getTrainWords();
-      this.timeStart = vec.timeStart;
-      this.vocabSize = corpus.getVocabSize();
-      this.vocab = corpus.getVocab();
-    }
-    
-    public void run(){
-      final float iter = config.getIter();     // #19
-      final int layer1Size = config.getLayer1Size();
-      final int numThreads = config.getNumThreads();
-      final int window = config.getWindow();
-      final int negative = config.getNegative();
-      final boolean cbow = config.useContinuousBagOfWords();
-      final boolean hs = config.useHierarchicalSoftmax();
-      final float sample = config.getSample();
-      
-      try{
-        int word = 0, sentence_length = 0, sentence_position = 0, a, b, c, d, last_word, l1, l2, target;
-        int[] sen = new int[MAX_SENTENCE_LENGTH + 1];
-        long cw;
-        long word_count = 0, last_word_count = 0;
-        long label, local_iter = (int)iter;
-        long next_random = id;
-        double f, g;
-        long timeNow;
-        double[] neu1 = new double[layer1Size];
-        double[] neu1e = new double[layer1Size];
-
-        corpus.rewind(numThreads, id);
-        while(true){
-          if (word_count - last_word_count > 10000) {
-            wordCountActual += word_count - last_word_count;
-            last_word_count = word_count;
-            timeNow = System.currentTimeMillis();
-            System.err.printf("%cAlpha: %f  iter: %d  Progress: %.2f%%  Words/thread/sec: %.2fk  ", 13, alpha, local_iter,
-                wordCountActual / (float)(iter * trainWords + 1) * 100,
-                wordCountActual / (float)(timeNow - timeStart + 1));
-            System.err.flush();
-            alpha = startingAlpha * (1 - wordCountActual / (float)(iter * trainWords + 1));
-            if (alpha < startingAlpha * 0.0001) alpha = startingAlpha * 0.0001F;
-          }
-          if (sentence_length == 0) {
-            while(true){
-              word = corpus.readWordIndex();
-              if(word == -2) break;                // EOF
-              if(word == -1) continue;
-              word_count++;
-              if (word == -3) break;
-              // The subsampling randomly discards frequent words while keeping the ranking same
-              if (sample > 0) {
-                double ran = (Math.sqrt(vocab[word].cn / (sample * trainWords)) + 1) * (sample * trainWords) / vocab[word].cn;
-                next_random = nextRandom(next_random);
-                if (ran < (next_random & 0xFFFF) / (double)65536) continue;
-              }
-              sen[sentence_length] = word;
-              sentence_length++;
-              if (sentence_length >= MAX_SENTENCE_LENGTH) break;
-            }
-            sentence_position = 0;
-          }
-          if(word == -2 /* eof? */ || (word_count > trainWords / numThreads)){
-            wordCountActual += word_count - last_word_count;
-            local_iter--;
-            if (local_iter == 0) break;
-            word_count = 0;
-            last_word_count = 0;
-            sentence_length = 0;
-            corpus.rewind(numThreads, id);
-            continue;
-          }
-          word = sen[sentence_position];
-          if (word == -1) continue;
-          for (c = 0; c < layer1Size; c++) neu1[c] = 0;
-          for (c = 0; c < layer1Size; c++) neu1e[c] = 0;
-          next_random = nextRandom(next_random);
-          b = (int)next_random % window;
-          if (cbow) {  //train the cbow architecture
-            // in -> hidden
-            cw = 0;
-            for (a = b; a < window * 2 + 1 - b; a++) if (a != window) {
-              c = sentence_position - window + a;
-              if (c < 0) continue;
-              if (c >= sentence_length) continue;
-              last_word = sen[c];
-              if (last_word == -1) continue;
-              for (c = 0; c < layer1Size; c++) neu1[c] += syn0[c + last_word * layer1Size];
-              cw++;
-            }
-            if(cw != 0) {
-              for (c = 0; c < layer1Size; c++) neu1[c] /= cw;
-              if (hs) for (d = 0; d < vocab[word].codelen; d++) {
-                f = 0;
-                l2 = vocab[word].point[d] * layer1Size;
-                // Propagate hidden -> output
-                for (c = 0; c < layer1Size; c++) f += neu1[c] * syn1[c + l2];
-                if (f <= -MAX_EXP) continue;
-                else if (f >= MAX_EXP) continue;
-                else f = expTable[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
-                // 'g' is the gradient multiplied by the learning rate
-                g = (1 - vocab[word].code[d] - f) * alpha;
-                // Propagate errors output -> hidden
-                for (c = 0; c < layer1Size; c++) neu1e[c] += g * syn1[c + l2];
-                // Learn weights hidden -> output
-                for (c = 0; c < layer1Size; c++) syn1[c + l2] += g * neu1[c];
-              }
-              // NEGATIVE SAMPLING
-              if (negative > 0) for (d = 0; d < negative + 1; d++) {
-                if (d == 0) {
-                  target = word;
-                  label = 1;
-                } else {
-                  next_random = nextRandom(next_random);
-                  target = table[Math.abs((int)((next_random >> 16) % TABLE_SIZE))];
-                  if (target == 0) target = Math.abs((int)(next_random % (vocabSize - 1) + 1));
-                  if (target == word) continue;
-                  label = 0;
-                }
-                l2 = target * layer1Size;
-                f = 0;
-                for (c = 0; c < layer1Size; c++) f += neu1[c] * syn1neg[c + l2];
-                if (f > MAX_EXP) g = (label - 1) * alpha;
-                else if (f < -MAX_EXP) g = (label - 0) * alpha;
-                else g = (label - expTable[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))]) * alpha;
-                for (c = 0; c < layer1Size; c++) neu1e[c] += g * syn1neg[c + l2];
-                for (c = 0; c < layer1Size; c++) syn1neg[c + l2] += g * neu1[c];
-              }
-              // hidden -> in
-              for (a = b; a < window * 2 + 1 - b; a++) if (a != window) {
-                c = sentence_position - window + a;
-                if (c < 0) continue;
-                if (c >= sentence_length) continue;
-                last_word = sen[c];
-                if (last_word == -1) continue;
-                for (c = 0; c < layer1Size; c++) syn0[c + last_word * layer1Size] += neu1e[c];
-              }
-            }
-          } else {  //train skip-gram
-            for (a = b; a < window * 2 + 1 - b; a++) if (a != window) {
-              c = sentence_position - window + a;
-              if (c < 0) continue;
-              if (c >= sentence_length) continue;
-              last_word = sen[c];
-              if (last_word == -1) continue;
-              l1 = last_word * layer1Size;
-              for (c = 0; c < layer1Size; c++) neu1e[c] = 0;
-              // HIERARCHICAL SOFTMAX
-              if (hs) for (d = 0; d < vocab[word].codelen; d++) {
-                f = 0;
-                l2 = vocab[word].point[d] * layer1Size;
-                // Propagate hidden -> output
-                for (c = 0; c < layer1Size; c++) f += syn0[c + l1] * syn1[c + l2];
-                if (f <= -MAX_EXP) continue;
-                else if (f >= MAX_EXP) continue;
-                else f = expTable[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))];
-                // 'g' is the gradient multiplied by the learning rate
-                g = (1 - vocab[word].code[d] - f) * alpha;
-                // Propagate errors output -> hidden
-                for (c = 0; c < layer1Size; c++) neu1e[c] += g * syn1[c + l2];
-                // Learn weights hidden -> output
-                for (c = 0; c < layer1Size; c++) syn1[c + l2] += g * syn0[c + l1];
-              }
-              // NEGATIVE SAMPLING
-              if (negative > 0) for (d = 0; d < negative + 1; d++) {
-                if (d == 0) {
-                  target = word;
-                  label = 1;
-                } else {
-                  next_random = nextRandom(next_random);
-                  target = table[Math.abs((int)((next_random >> 16) % TABLE_SIZE))];
-                  if (target == 0) target = Math.abs((int)(next_random % (vocabSize - 1) + 1));
-                  if (target == word) continue;
-                  label = 0;
-                }
-                l2 = target * layer1Size;
-                f = 0;
-                for (c = 0; c < layer1Size; c++) f += syn0[c + l1] * syn1neg[c + l2];
-                if (f > MAX_EXP) g = (label - 1) * alpha;
-                else if (f < -MAX_EXP) g = (label - 0) * alpha;
-                else g = (label - expTable[(int)((f + MAX_EXP) * (EXP_TABLE_SIZE / MAX_EXP / 2))]) * alpha;
-                for (c = 0; c < layer1Size; c++) neu1e[c] += g * syn1neg[c + l2];
-                for (c = 0; c < layer1Size; c++) syn1neg[c + l2] += g * syn0[c + l1];
-              }
-              // Learn weights input -> hidden
-              for (c = 0; c < layer1Size; c++) syn0[c + l1] += neu1e[c];
-            }
-          }
-          sentence_position++;
-          if (sentence_position >= sentence_length) {
-            sentence_length = 0;
-            continue;
-          }
-        }
-        corpus.shutdown();
-      }
-      catch(IOException e){
-        throw new RuntimeException(e);
-      }
-      // exit from thread
-      synchronized (vec) {
-        vec.threadCount--;
-        vec.notify();
-      }
-    }
+  /**
+   * Returns the number of words that have been processed by the training threads
+   */
+  public long getTrainedWords(){
+    return progress.sum();
+  }
+  
+  /**
+   * Returns the elapsed time of the training threads in milliseconds
+   */
+  public long getTrainingMillis(){
+    return trainingMillis;
   }
   
-  int threadCount;
   
   public void trainModel(CorpusFactory corpusFactory) throws IOException {
-    final int layer1Size = config.getLayer1Size();
     Corpus corpus = corpusFactory.create(config);
 
     corpus.learnVocab();
     corpus.sortVocab();
     final int vocabSize = corpus.getVocabSize();
-    final VocabWord[] vocab = corpus.getVocab();
     logger.info("Vocab size: {}\n", vocabSize);
     logger.info("Words in train file: {}\n", corpus.getTrainWords());
 
     if(config.getOutputFile() == null) return;
+    // before the net is built, which may take more memory than there is
+    new MemoryPreflight(corpus, config).check();
 
-    initNet(corpus);
-    if(config.getNegative() > 0)
-      initUnigramTable(corpus);
+    if(config.getSharedDir() != null){
+      // other processes can join the training, see joinModel()
+      if(config.getCheckpointFile() != null || config.getTimeBudget() > 0 || config.getAutoTune() > 0 || config.getProbeFile() != null)
+        throw new IllegalArgumentException("the checkpoints, the time budget, the auto-tuning and the probes of a shared job are not supported");
+      job = SharedJob.create(new File(config.getSharedDir()), this, corpus, config);
+    }
+    else{
+      initNet(corpus);
+    }
+    startingAlpha = config.getAlpha();
+    train(corpusFactory, corpus, null);
+  }
+
+  /**
+   * Joins the running training of another process in the shared directory of the config. The weights are
+   * mapped from the files of the job and trained without locks as the training threads of a process do,
+   * and the other process saves the word vectors at the end.
+   */
+  public void joinModel(CorpusFactory corpusFactory) throws IOException {
+    if(config.getSharedDir() == null)
+      throw new IllegalArgumentException("the shared directory is not specified");
+    if(config.getCheckpointFile() != null || config.getAutoTune() > 0 || config.getProbeFile() != null)
+      throw new IllegalArgumentException("the checkpoints, the auto-tuning and the probes of a shared job are not supported");
+    Corpus corpus = corpusFactory.create(config);
+    boolean joined = false;
+    try{
+      job = SharedJob.join(new File(config.getSharedDir()), this, corpus, config);
+      joined = true;
+    }
+    finally{
+      if(!joined) corpus.close();
+    }
+    logger.info("Joined the job in {} as process {}\n", config.getSharedDir(), job.getSlot());
+    startingAlpha = job.getStartingAlpha();
+    train(corpusFactory, corpus, null);
+  }
 
-    timeStart = System.currentTimeMillis();
+  /**
+   * Continues the training from the checkpoint file of the config instead of starting over
+   */
+  public void resumeModel(CorpusFactory corpusFactory) throws IOException {
+    if(config.getCheckpointFile() == null)
+      throw new IllegalArgumentException("the checkpoint file is not specified");
+    Corpus corpus = corpusFactory.create(config);
+    Checkpoint checkpoint = restore(corpus, false);
+    logger.info("Resuming from the checkpoint {} at iteration {}, {} words trained\n",
+        new Object[]{ config.getCheckpointFile(), checkpoint.getPosition().getIteration() + 1, checkpoint.getTrainedWords() });
+    startingAlpha = checkpoint.getStartingAlpha();
+    train(corpusFactory, corpus, checkpoint);
+  }
 
-    threadCount = config.getNumThreads();
-    for(int i = 0; i < config.getNumThreads(); i++){
-      new TrainModelThread(this, corpusFactory.create(corpus), config, i).start();
+  /**
+   * Loads the model from the checkpoint file of the config and trains it further on the corpus,
+   * which only needs to have the new or changed documents. The words of the corpus are added to the
+   * vocabulary and the model is trained with the learning rate of {@link Config#getUpdateAlpha()}.
+   * The updated model is written to the checkpoint file at the end, so it can be updated again.
+   */
+  public void updateModel(CorpusFactory corpusFactory) throws IOException {
+    if(config.getCheckpointFile() == null)
+      throw new IllegalArgumentException("the checkpoint file is not specified");
+    Corpus corpus = corpusFactory.create(config);
+    restore(corpus, true);
+    logger.info("Vocab size: {}\n", corpus.getVocabSize());
+    logger.info("Words in new documents: {}\n", corpus.getTrainWords());
+    startingAlpha = config.getUpdateAlpha();
+    train(corpusFactory, corpus, null);
+  }
+
+  /**
+   * Restores the model from the checkpoint file. The corpus is closed if it fails.
+   * @param update true to add the words of the corpus to the model
+   */
+  Checkpoint restore(Corpus corpus, boolean update) throws IOException {
+    final File file = new File(config.getCheckpointFile());
+    boolean restored = false;
+    try{
+      Checkpoint checkpoint = update ? Checkpoint.update(file, this, corpus, config) : Checkpoint.read(file, this, corpus, config);
+      restored = true;
+      return checkpoint;
+    }
+    finally{
+      if(!restored) corpus.close();
     }
-    synchronized (this) {
-      while(threadCount > 0){
-        try {
-          wait();
+  }
+
+  /**
+   * Builds the model and coordinates the workers which train it on their shards of the corpus,
+   * see {@link #trainWorker(CorpusFactory)}. The averaged word vectors are saved to the output file.
+   */
+  public void coordinateModel(CorpusFactory corpusFactory) throws IOException {
+    Corpus corpus = corpusFactory.create(config);
+    try{
+      corpus.learnVocab();
+      corpus.sortVocab();
+      logger.info("Vocab size: {}\n", corpus.getVocabSize());
+      logger.info("Words in train file: {}\n", corpus.getTrainWords());
+      new MemoryPreflight(corpus, config).check();
+
+      initNet(corpus);
+      timeStart = System.currentTimeMillis();
+      new ParameterServer(this, config, corpus).run();
+      trainingMillis = System.currentTimeMillis() - timeStart;
+      if(config.getOutputFile() != null) saveVectors(corpus);
+    }
+    finally{
+      corpus.close();
+    }
+  }
+
+  /**
+   * Trains a shard of the corpus as a worker of the coordinator of the config. The model comes from
+   * the coordinator and the changes of the weights are averaged with the other workers at the exchange
+   * interval of the config.
+   */
+  public void trainWorker(CorpusFactory corpusFactory) throws IOException {
+    Corpus corpus = corpusFactory.create(config);
+    boolean connected = false;
+    try{
+      client = new ParameterClient(config);
+      client.receiveModel(this, corpus);
+      connected = true;
+    }
+    finally{
+      if(!connected){
+        if(client != null) client.close();
+        corpus.close();
+      }
+    }
+    logger.info("Training shard {} of the coordinator {}:{}\n",
+        new Object[]{ client.getShard(), config.getCoordinatorHost(), config.getCoordinatorPort() });
+    startingAlpha = config.getAlpha();
+    train(corpusFactory, corpus, null);
+  }
+
+  void train(CorpusFactory corpusFactory, Corpus corpus, Checkpoint checkpoint) throws IOException {
+    final int vocabSize = corpus.getVocabSize();
+    final VocabWord[] vocab = corpus.getVocab();
+    if(config.getNegative() > 0)
+      sampler = NegativeSampler.create(config, vocab, vocabSize);
+
+    ScheduledExecutorService checkpoints = null, exchanges = null, heartbeats = null, probes = null;
+
+    try{
+      // the tuned numbers of the threads are set to the config
+      if(config.getAutoTune() > 0) new ThreadTuner(this, config, corpusFactory, corpus).tune();
+      final int numThreads = config.getNumThreads();
+      final int numReaders = config.getReaderThreads();
+      // the chunks are read by the training threads themselves unless there are reader threads
+      final int numScheduled = numReaders > 0 ? numReaders : numThreads;
+      // a time budget trains as many iterations as fit in it
+      final int iterations = config.getTimeBudget() > 0 ? Integer.MAX_VALUE : config.getIter();
+      timeStart = System.currentTimeMillis();
+      progress = new ProgressCounter(numThreads);
+      resumedMillis = 0;
+      if(checkpoint != null){
+        resumedWords = checkpoint.getTrainedWords();
+        resumedMillis = checkpoint.getElapsedMillis();
+        progress.add(0, resumedWords);
+        alpha = checkpoint.getAlpha();
+        scheduler = new ChunkScheduler(numScheduled, checkpoint.getPosition().getNumChunks(), iterations, checkpoint.getPosition());
+      }
+      else if(job != null){
+        // starts from the progress of the job which this process joins
+        job.heartbeat(progress);
+        resumedWords = progress.sum();
+        alpha = TrainModelThread.scheduleAlpha(startingAlpha, resumedWords, (double)config.getIter() * corpus.getTrainWords());
+        scheduler = job.createScheduler();
+      }
+      else if(client != null){
+        alpha = startingAlpha;
+        scheduler = new ChunkScheduler(numScheduled, client.getNumChunks(), iterations, null, client.getShardChunks());
+      }
+      else{
+        alpha = startingAlpha;
+        scheduler = new ChunkScheduler(numScheduled, corpus.getNumChunks(numScheduled), iterations);
+      }
+      // the time budget includes the training before the resume
+      if(config.getTimeBudget() > 0) scheduler.setDeadline(timeStart - resumedMillis + config.getTimeBudget() * 1000L);
+      pipeline = numReaders > 0 ? new SentencePipeline(config, scheduler, numReaders, numThreads) : null;
+      checkpoints = scheduleCheckpoints(corpus);
+      exchanges = scheduleExchanges();
+      heartbeats = scheduleHeartbeats();
+      probes = scheduleProbes(corpus);
+      runTrainModelThreads(corpusFactory, corpus);
+      trainingMillis = System.currentTimeMillis() - timeStart;
+      if(probes != null){
+        awaitTermination(probes);
+        probes = null;
+      }
+      if(heartbeats != null){
+        awaitTermination(heartbeats);
+        heartbeats = null;
+        job.heartbeat(progress);
+        if(!job.isOwner()) return;
+        job.awaitCompletion();
+        trainingMillis = System.currentTimeMillis() - timeStart;
+      }
+      if(exchanges != null){
+        awaitTermination(exchanges);
+        exchanges = null;
+        client.exchange(true);
+      }
+      if(checkpoints != null){
+        awaitTermination(checkpoints);
+        checkpoints = null;
+        // the final checkpoint is the model to update later
+        Checkpoint.write(new File(config.getCheckpointFile()), this, corpus, config);
+      }
+
+      // a worker may leave the word vectors to the coordinator
+      if(config.getOutputFile() != null) saveVectors(corpus);
+      if(coModels != null){
+        for(Word2vec model : coModels){
+          model.trainingMillis = trainingMillis;
+          model.saveVectors(corpus);
         }
-        catch (InterruptedException ignored) {}
       }
     }
+    finally{
+      if(checkpoints != null) checkpoints.shutdownNow();
+      if(exchanges != null) exchanges.shutdownNow();
+      if(heartbeats != null) heartbeats.shutdownNow();
+      if(probes != null) probes.shutdownNow();
+      if(client != null) client.close();
+      if(job != null) job.close();
+      corpus.close();
+    }
+  }
 
+  void saveVectors(Corpus corpus) throws IOException {
+    final int layer1Size = config.getLayer1Size();
+    final int vocabSize = corpus.getVocabSize();
+    final VocabWord[] vocab = corpus.getVocab();
     OutputStream os = null;
     Writer w = null;
     PrintWriter pw = null;
-
     try{
       os = new FileOutputStream(config.getOutputFile());
       w = new OutputStreamWriter(os, ENCODING);
@@ -339,13 +367,12 @@ public class Word2vec {
       for(int i = 0; i < vocabSize; i++){
         pw.print(vocab[i].word);
         for(int j = 0; j < layer1Size; j++){
-          pw.printf(" %f", syn0[i * layer1Size + j]);
+          pw.printf(" %f", syn0.get(i, j));
         }
         pw.println();
       }
     }
     finally{
-      corpus.close();
       IOUtils.closeQuietly(pw);
       IOUtils.closeQuietly(w);
       IOUtils.closeQuietly(os);
@@ -353,79 +380,315 @@ public class Word2vec {
   }
 
   /**
-   * Used later for sorting by word counts
-   *
+   * Runs the training threads and the reader threads of the pipeline on a worker pool and waits
+   * for all of them. If a thread fails, the others are cancelled and the cause is thrown to the caller.
    */
-  static class VocabWordComparator implements Comparator<VocabWord> {
-    @Override
-    public int compare(VocabWord o1, VocabWord o2) {
-      return o2.cn - o1.cn;
+  void runTrainModelThreads(CorpusFactory corpusFactory, Corpus corpus) throws IOException {
+    final int numThreads = config.getNumThreads();
+    final int numReaders = pipeline == null ? 0 : config.getReaderThreads();
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads + numReaders, new DaemonThreadFactory("w2v-train-"));
+    mergedRequests = new AtomicLongArray(numThreads);
+    for(int i = 0; i < numThreads; i++){
+      mergedRequests.set(i, mergeRequest);
+    }
+    if(coModels != null){
+      for(Word2vec model : coModels){
+        // the co-models are trained by the threads of this model, on its clock and its progress
+        model.timeStart = timeStart;
+        model.resumedWords = resumedWords;
+        model.resumedMillis = resumedMillis;
+        model.progress = progress;
+        model.scheduler = scheduler;
+      }
+    }
+    try{
+      CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+      for(int i = 0; i < numThreads; i++){
+        final Corpus threadCorpus = corpusFactory.create(corpus);
+        final TrainModelThread thread = TrainModelThread.create(this, threadCorpus, config, i);
+        thread.coTrainers = createCoTrainers(threadCorpus, i);
+        completion.submit(thread);
+      }
+      for(int i = 0; i < numReaders; i++){
+        completion.submit(pipeline.createReader(corpusFactory.create(corpus), i));
+      }
+      // the first failure is thrown even if the other threads are blocked waiting for the failed one
+      for(int i = 0; i < numThreads + numReaders; i++){
+        completion.take().get();
+      }
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the training threads");
+    }
+    catch(ExecutionException e){
+      final Throwable cause = e.getCause();
+      if(cause instanceof IOException) throw (IOException)cause;
+      if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+      if(cause instanceof Error) throw (Error)cause;
+      throw new RuntimeException(cause);
+    }
+    finally{
+      executor.shutdownNow();
     }
   }
-  
-  void initUnigramTable(Corpus corpus){
-    final int vocabSize = corpus.getVocabSize();
-    final VocabWord[] vocab = corpus.getVocab();
-    long trainWordsPow = 0;
-    double d1, power = 0.75;
-    table = new int[TABLE_SIZE];
-    for(int i = 0; i < vocabSize; i++){
-      trainWordsPow += Math.pow(vocab[i].cn, power);
-    }
-    int i = 0;
-    d1 = Math.pow(vocab[i].cn, power) / (double)trainWordsPow;
-    for(int j = 0; j < TABLE_SIZE; j++){
-      table[j] = i;
-      if((double)j / (double)TABLE_SIZE > d1) {
-        i++;
-        d1 += Math.pow(vocab[i].cn, power) / (double)trainWordsPow;
+
+  /**
+   * Returns the view of the matrix which the training threads update with the optimizer of the config
+   * @param matrix the matrix of the model, or its thread private view
+   * @param index 0 for syn0, 1 for syn1 and 2 for syn1neg
+   */
+  WeightMatrix optimize(WeightMatrix matrix, int index){
+    if(matrix == null || config.getOptimizer() == WeightMatrix.Optimizer.SGD) return matrix;
+    synchronized(this){
+      // the threads share the sums, which are created for the net that has been created last
+      if(adaGradSums == null) adaGradSums = new float[3][];
+      if(adaGradSums[index] == null) adaGradSums[index] = AdaGradWeightMatrix.createSums(matrix.getRows());
+      return new AdaGradWeightMatrix(matrix, adaGradSums[index], startingAlpha);
+    }
+  }
+
+  /**
+   * Returns the threads of the other models which train the sentences that the thread id reads,
+   * or null if this model is trained alone
+   */
+  TrainModelThread[] createCoTrainers(Corpus corpus, int id){
+    if(coModels == null) return null;
+    TrainModelThread[] threads = new TrainModelThread[coModels.length];
+    for(int m = 0; m < coModels.length; m++){
+      threads[m] = TrainModelThread.create(coModels[m], corpus, coModels[m].config, id);
+    }
+    return threads;
+  }
+
+  /**
+   * Returns the position of the training for the checkpoints, which a shared job does not have
+   */
+  ChunkScheduler.Position getPosition(){
+    if(!(scheduler instanceof ChunkScheduler))
+      throw new IllegalStateException("the position of a shared job cannot be checkpointed");
+    return ((ChunkScheduler)scheduler).getPosition();
+  }
+
+  /**
+   * Returns the training time until the time including the training before the resume
+   */
+  long getElapsedMillis(long timeNow){
+    return resumedMillis + timeNow - timeStart;
+  }
+
+  /**
+   * Asks the training threads to merge the copies of their hot rows into the shared matrices and waits until
+   * they have, so that the shared matrices have all the updates which the threads did before the call.
+   * The threads merge at the next report of their progress, and the threads which are waiting for
+   * the next iteration or have finished merged before.
+   * @return false if some threads did not merge in {@link #MERGE_TIMEOUT_MILLIS}
+   */
+  synchronized boolean awaitMergedReplicas() throws InterruptedIOException {
+    if(config.getHotRows() <= 0 && coModels == null) return true;
+    final long request = ++mergeRequest;
+    final long deadline = System.currentTimeMillis() + MERGE_TIMEOUT_MILLIS;
+    try{
+      while(true){
+        boolean merged = true;
+        for(int i = 0; i < mergedRequests.length() && merged; i++){
+          merged = mergedRequests.get(i) >= request;
+        }
+        if(merged) return true;
+        if(System.currentTimeMillis() > deadline) return false;
+        Thread.sleep(10);
       }
-      if (i >= vocabSize)
-        i = vocabSize - 1;
+    }
+    catch(InterruptedException e){
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the hot rows to be merged");
     }
   }
-  
-  void initNet(Corpus corpus){
-    final int layer1Size = config.getLayer1Size();
-    final int vocabSize = corpus.getVocabSize();
-    
-    syn0 = posixMemAlign128(vocabSize * layer1Size);
 
-    if(config.useHierarchicalSoftmax()){
-      syn1 = posixMemAlign128(vocabSize * layer1Size);
-      for(int i = 0; i < vocabSize; i++){
-        for(int j = 0; j < layer1Size; j++){
-          syn1[i * layer1Size + j] = 0;
+  /**
+   * Writes the checkpoints in the background at the interval of the config while the training threads run
+   * @return the executor of the checkpoints, or null if no checkpoint file is specified
+   */
+  ScheduledExecutorService scheduleCheckpoints(final Corpus corpus){
+    if(config.getCheckpointFile() == null) return null;
+    final File file = new File(config.getCheckpointFile());
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("w2v-checkpoint-"));
+    executor.scheduleWithFixedDelay(new Runnable(){
+      @Override
+      public void run(){
+        try{
+          long start = System.currentTimeMillis();
+          Checkpoint.write(file, Word2vec.this, corpus, config);
+          logger.info("wrote the checkpoint {} in {} ms", file, System.currentTimeMillis() - start);
+        }
+        catch(IOException e){
+          logger.warn("failed to write the checkpoint " + file, e);
+        }
+        catch(RuntimeException e){
+          // an exception would cancel the following checkpoints silently
+          logger.warn("failed to write the checkpoint " + file, e);
         }
       }
+    }, config.getCheckpointInterval(), config.getCheckpointInterval(), TimeUnit.SECONDS);
+    return executor;
+  }
+
+  /**
+   * Exchanges the changes of the weights with the coordinator in the background at the interval of the config
+   * @return the executor of the exchanges, or null if this is not a worker
+   */
+  ScheduledExecutorService scheduleExchanges(){
+    if(client == null) return null;
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("w2v-exchange-"));
+    executor.scheduleWithFixedDelay(new Runnable(){
+      @Override
+      public void run(){
+        try{
+          client.exchange(false);
+        }
+        catch(IOException e){
+          // the connection cannot be used any more, so the following exchanges are cancelled by the exception
+          logger.error("failed to exchange the weights with the coordinator", e);
+          throw new RuntimeException(e);
+        }
+      }
+    }, config.getExchangeInterval(), config.getExchangeInterval(), TimeUnit.SECONDS);
+    return executor;
+  }
+
+  /**
+   * Probes the quality of the word vectors in the background at the interval of the config while the training threads run
+   * @return the executor of the probes, or null if no probe file is specified or none of its questions can be answered
+   */
+  ScheduledExecutorService scheduleProbes(Corpus corpus) throws IOException {
+    if(config.getProbeFile() == null) return null;
+    final VocabWord[] vocab = corpus.getVocab();
+    final String[] words = new String[Math.min(config.getProbeWords(), corpus.getVocabSize())];
+    for(int i = 0; i < words.length; i++){
+      words[i] = vocab[i].word;
+    }
+    final QualityProbe probe = new QualityProbe(this, config, words);
+    if(probe.getNumQuestions() == 0){
+      logger.warn("none of the questions in {} can be answered from the {} most frequent words, the training is not probed",
+          config.getProbeFile(), words.length);
+      return null;
     }
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("w2v-probe-"));
+    executor.scheduleWithFixedDelay(new Runnable(){
+      @Override
+      public void run(){
+        try{
+          probe.run();
+        }
+        catch(RuntimeException e){
+          // an exception would cancel the following probes silently
+          logger.warn("failed to probe the word vectors", e);
+        }
+      }
+    }, config.getProbeInterval(), config.getProbeInterval(), TimeUnit.SECONDS);
+    return executor;
+  }
 
-    if(config.getNegative() > 0){
-      syn1neg = posixMemAlign128(vocabSize * layer1Size);
-      for(int i = 0; i < vocabSize; i++){
-        for(int j = 0; j < layer1Size; j++){
-          syn1neg[i * layer1Size + j] = 0;
+  /**
+   * Publishes the progress of this process to the shared job and takes in the progress of the others
+   * @return the executor of the heartbeats, or null if the job is not shared
+   */
+  ScheduledExecutorService scheduleHeartbeats(){
+    if(job == null) return null;
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("w2v-heartbeat-"));
+    executor.scheduleWithFixedDelay(new Runnable(){
+      @Override
+      public void run(){
+        try{
+          job.heartbeat(progress);
+        }
+        catch(IOException e){
+          logger.warn("failed to update the progress of the shared job", e);
         }
       }
+    }, SharedJob.HEARTBEAT_MILLIS, SharedJob.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+    return executor;
+  }
+
+  static void awaitTermination(ExecutorService executor) throws InterruptedIOException {
+    executor.shutdown();
+    try{
+      while(!executor.awaitTermination(1, TimeUnit.MINUTES)){
+        logger.info("waiting for the background task to finish");
+      }
     }
+    catch(InterruptedException e){
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while waiting for the background task");
+    }
+  }
+
+  static class DaemonThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    DaemonThreadFactory(String prefix){
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r){
+      Thread t = new Thread(r, prefix + count.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    }
+  }
 
+  /**
+   * Used later for sorting by word counts
+   *
+   */
+  static class VocabWordComparator implements Comparator<VocabWord> {
+    @Override
+    public int compare(VocabWord o1, VocabWord o2) {
+      return o2.cn < o1.cn ? -1 : o2.cn == o1.cn ? 0 : 1;
+    }
+  }
+  
+  void initNet(Corpus corpus) throws IOException {
+    final int vocabSize = corpus.getVocabSize();
+    
+    createNet(vocabSize);
+    initSyn0(vocabSize);
+    createBinaryTree(corpus);
+  }
+
+  /**
+   * Builds the Huffman tree of the vocabulary of the corpus if the hierarchical softmax is used
+   */
+  void createBinaryTree(Corpus corpus){
+    tree = config.useHierarchicalSoftmax() ? corpus.createBinaryTree() : null;
+  }
+
+  void initSyn0(int vocabSize){
+    final int layer1Size = config.getLayer1Size();
     long nextRandom = 1;
     for(int i = 0; i < vocabSize; i++){
       for(int j = 0; j < layer1Size; j++){
         nextRandom = nextRandom(nextRandom);
-        syn0[i * layer1Size + j] = (((nextRandom & 0xFFFF) / (double)65536) - 0.5) / layer1Size;
+        syn0.set(i, j, (((nextRandom & 0xFFFF) / (double)65536) - 0.5) / layer1Size);
       }
     }
-    corpus.createBinaryTree();
   }
-  
-  static double[] posixMemAlign128(int size){
-    final int surplus = size % 128;
-    if(surplus > 0){
-      int div = size / 128;
-      return new double[(div + 1) * 128];
+
+  void createNet(int vocabSize) throws IOException {
+    syn0 = WeightMatrix.create(config, "syn0", vocabSize);
+    adaGradSums = null;
+
+    // syn1 and syn1neg are initialized by zero
+    if(config.useHierarchicalSoftmax()){
+      syn1 = WeightMatrix.create(config, "syn1", vocabSize);
+    }
+
+    if(config.getNegative() > 0){
+      syn1neg = WeightMatrix.create(config, "syn1neg", vocabSize);
     }
-    return new double[size];
   }
   
   static long nextRandom(long nextRandom){
@@ -17,11 +17,32 @@
 
 package com.rondhuit.w2v.demo;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.rondhuit.commons.IOUtils;
 import com.rondhuit.w2v.Config;
+import com.rondhuit.w2v.CorpusFactory;
+import com.rondhuit.w2v.FastRandom;
+import com.rondhuit.w2v.MultiModelTrainer;
+import com.rondhuit.w2v.NegativeSampler;
+import com.rondhuit.w2v.VectorKernel;
+import com.rondhuit.w2v.WeightMatrix;
+import com.rondhuit.w2v.Word2vec;
 
 public abstract class AbstractCreateVectors {
   
   protected abstract void localUsage();
+
+  /**
+   * Returns the config of the corpus and the model which the arguments specify
+   */
+  protected abstract Config createConfig(String[] args);
   
   protected void paramDesc(String param, String desc){
     System.err.printf("\t%s\n\t\t%s\n", param, desc);
@@ -38,11 +59,55 @@ public abstract class AbstractCreateVectors {
                                   " will be randomly down-sampled; default is 0.001, useful range is (0, 0.00001)");
     paramDesc("-hs",              "Use Hierarchical Softmax; default is not used");
     paramDesc("-negative <int>",  "Number of negative examples; default is 5, common values are 3 - 10 (0 = not used)");
+    paramDesc("-sampler <alias|table>", "Draw negative examples by the alias method or the 100M entries unigram table; default is alias");
+    paramDesc("-random <lcg|xorshift|splitmix>", "Set the random number generator of the training threads; default is lcg");
     paramDesc("-threads <int>",   "Use <int> threads (default 4)");
+    paramDesc("-reader-threads <int>", "Read the corpus on <int> threads in addition to the training threads; default is 0 (the training threads read it)");
+    paramDesc("-auto-tune <int>", "Choose -threads (and -reader-threads if set) by training bursts of <int> seconds on the corpus" +
+                                  " before the training; default is 0 (not used)");
+    paramDesc("-hot-rows <int>",  "Give every thread private copies of the rows of the <int> most frequent words; default is 0 (not used)");
+    paramDesc("-hot-merge <int>", "Merge the private copies of the hot rows every <int> words; default is 100000");
     paramDesc("-iter <int>",      "Run more training iterations (default 5)");
+    paramDesc("-optimizer <sgd|adagrad>", "Decay the learning rate of every row alike, or adapt it per row by AdaGrad" +
+                                  " which needs fewer iterations; default is sgd");
+    paramDesc("-time-budget <int>", "Instead of -iter, train as many iterations as fit in <int> seconds and end on time;" +
+                                  " the learning rate decays with the elapsed time");
     paramDesc("-min-count <int>", "This will discard words that appear less than <int> times; default is 5");
+    paramDesc("-memory-budget <int>", "Refuse to train models which need more than <int> MB after learning the vocabulary;" +
+                                  " default is 0 (the max heap for the heap parts)");
+    paramDesc("-memory-fit",      "Raise -min-count until the models fit in the memory instead of refusing them");
     paramDesc("-alpha <float>",   "Set the starting learning rate; default is 0.025 for skip-gram and 0.05 for CBOW");
     paramDesc("-cbow",  "Use the continuous bag of words model; default is skip-gram model");
+    paramDesc("-hogbatch", "Train skip-gram with negative sampling in minibatches which share the negative samples; default is not used");
+    paramDesc("-float", "Store the weight matrices in single precision (float); default is double");
+    paramDesc("-storage <heap|direct|mapped>", "Store the weight matrices on the Java heap, in direct buffers or in mapped files" +
+                                  " (off-heap storages are single precision); default is heap");
+    paramDesc("-weights-dir <dir>", "Use <dir> for the weight files of mapped storage; default is current directory");
+    paramDesc("-pretouch", "Touch every page of off-heap weights before training");
+    paramDesc("-kernel <auto|scalar|unrolled>", "Force the implementation of the vector operations, both plain Java;" +
+                                  " auto times them at startup and uses the faster one; default is auto" +
+                                  " (no SIMD kernel, since the Vector API needs a newer Java than this build targets)");
+    paramDesc("-checkpoint <file>", "Write checkpoints of the training to <file> while training; default is not used");
+    paramDesc("-checkpoint-interval <int>", "Write a checkpoint every <int> seconds; default is 1800");
+    paramDesc("-resume", "Continue the training from the checkpoint given by -checkpoint");
+    paramDesc("-probe <file>",    "Probe the accuracy of the analogy questions in <file> (questions-words.txt format) while training," +
+                                  " and stop the training when it stops improving; default is not used");
+    paramDesc("-probe-interval <int>", "Probe every <int> seconds; default is 60");
+    paramDesc("-probe-patience <int>", "Stop after <int> probes in a row without a better accuracy; default is 3");
+    paramDesc("-probe-words <int>", "Answer the questions from the <int> most frequent words; default is 30000");
+    paramDesc("-probe-questions <int>", "Sample <int> questions for the probes; default is 1000");
+    paramDesc("-update", "Train the model of the checkpoint given by -checkpoint further on new documents, adding their words");
+    paramDesc("-update-alpha <float>", "Set the starting learning rate of -update; default is a tenth of -alpha");
+    paramDesc("-coordinate <port>", "Build the model and coordinate the workers of the data parallel training on <port>;" +
+                                  " the workers train shards of the corpus and the averaged vectors are saved by the coordinator");
+    paramDesc("-workers <int>",   "Wait for <int> workers before -coordinate starts training");
+    paramDesc("-worker <host:port>", "Train a shard of the corpus as a worker of the coordinator at <host:port>");
+    paramDesc("-exchange-interval <int>", "Exchange the changes of the weights with the coordinator every <int> seconds; default is 10");
+    paramDesc("-shared <dir>",    "Map the weights from files in <dir> so that other processes on this host can -join the training;" +
+                                  " this process saves the word vectors when all of them have finished");
+    paramDesc("-join <dir>",      "Join the training of the process which has been started with -shared <dir>");
+    paramDesc("-models <file>",   "Also train a model for each line of <file> in the same pass over the corpus. The options of a line," +
+                                  " e.g. -size 300 -window 8 -output vec300.txt, override the others for the model");
     
     localUsage();
     
@@ -75,8 +140,82 @@ public abstract class AbstractCreateVectors {
     if((i = argPos("-sample", args)) >= 0) config.setSample(Float.parseFloat(args[i + 1]));
     if((i = argPos("-hs", args)) >= 0) config.setUseHierarchicalSoftmax(true);
     if((i = argPos("-negative", args)) >= 0) config.setNegative(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-sampler", args)) >= 0) config.setNegativeSampler(NegativeSampler.Type.valueOf(args[i + 1].toUpperCase()));
+    if((i = argPos("-random", args)) >= 0) config.setRandom(FastRandom.Type.valueOf(args[i + 1].toUpperCase()));
     if((i = argPos("-threads", args)) >= 0) config.setNumThreads(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-reader-threads", args)) >= 0) config.setReaderThreads(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-auto-tune", args)) >= 0) config.setAutoTune(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-hot-rows", args)) >= 0) config.setHotRows(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-hot-merge", args)) >= 0) config.setHotRowsMergeInterval(Integer.parseInt(args[i + 1]));
     if((i = argPos("-iter", args)) >= 0) config.setIter(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-optimizer", args)) >= 0) config.setOptimizer(WeightMatrix.Optimizer.valueOf(args[i + 1].toUpperCase()));
+    if((i = argPos("-time-budget", args)) >= 0) config.setTimeBudget(Long.parseLong(args[i + 1]));
     if((i = argPos("-min-count", args)) >= 0) config.setMinCount(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-memory-budget", args)) >= 0) config.setMemoryBudget(Long.parseLong(args[i + 1]));
+    if((i = argPos("-memory-fit", args, false)) >= 0) config.setMemoryFit(true);
+    if((i = argPos("-hogbatch", args, false)) >= 0) config.setUseMinibatch(true);
+    if((i = argPos("-float", args, false)) >= 0) config.setUseSinglePrecision(true);
+    if((i = argPos("-storage", args)) >= 0) config.setWeightStorage(WeightMatrix.Storage.valueOf(args[i + 1].toUpperCase()));
+    if((i = argPos("-weights-dir", args)) >= 0) config.setWeightsDir(args[i + 1]);
+    if((i = argPos("-pretouch", args, false)) >= 0) config.setUsePreTouch(true);
+    if((i = argPos("-kernel", args)) >= 0) config.setVectorKernel(VectorKernel.Type.valueOf(args[i + 1].toUpperCase()));
+    if((i = argPos("-checkpoint", args)) >= 0) config.setCheckpointFile(args[i + 1]);
+    if((i = argPos("-checkpoint-interval", args)) >= 0) config.setCheckpointInterval(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-probe", args)) >= 0) config.setProbeFile(args[i + 1]);
+    if((i = argPos("-probe-interval", args)) >= 0) config.setProbeInterval(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-probe-patience", args)) >= 0) config.setProbePatience(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-probe-words", args)) >= 0) config.setProbeWords(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-probe-questions", args)) >= 0) config.setProbeQuestions(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-update-alpha", args)) >= 0) config.setUpdateAlpha(Float.parseFloat(args[i + 1]));
+    if((i = argPos("-coordinate", args)) >= 0) config.setCoordinator("localhost", Integer.parseInt(args[i + 1]));
+    if((i = argPos("-workers", args)) >= 0) config.setNumWorkers(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-worker", args)) >= 0){
+      final String address = args[i + 1];
+      final int colon = address.lastIndexOf(':');
+      if(colon < 0) throw new IllegalArgumentException(String.format("-worker needs <host:port> but %s is given", address));
+      config.setCoordinator(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+    if((i = argPos("-exchange-interval", args)) >= 0) config.setExchangeInterval(Integer.parseInt(args[i + 1]));
+    if((i = argPos("-shared", args)) >= 0) config.setSharedDir(args[i + 1]);
+    if((i = argPos("-join", args)) >= 0) config.setSharedDir(args[i + 1]);
+  }
+
+  /**
+   * Trains the model, continues the training from the checkpoint if -resume or -update is given,
+   * or takes part in the data parallel training if -coordinate, -worker or -join is given
+   */
+  protected void trainModel(Word2vec w2v, CorpusFactory corpusFactory, String[] args) throws IOException {
+    int i;
+    if((i = argPos("-models", args)) >= 0) trainModels(w2v.getConfig(), corpusFactory, args, new File(args[i + 1]));
+    else if(argPos("-resume", args, false) >= 0) w2v.resumeModel(corpusFactory);
+    else if(argPos("-update", args, false) >= 0) w2v.updateModel(corpusFactory);
+    else if(argPos("-coordinate", args) >= 0) w2v.coordinateModel(corpusFactory);
+    else if(argPos("-worker", args) >= 0) w2v.trainWorker(corpusFactory);
+    else if(argPos("-join", args) >= 0) w2v.joinModel(corpusFactory);
+    else w2v.trainModel(corpusFactory);
+  }
+
+  void trainModels(Config config, CorpusFactory corpusFactory, String[] args, File file) throws IOException {
+    List<Config> configs = new ArrayList<Config>();
+    configs.add(config);
+    BufferedReader reader = null;
+    try{
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      String line;
+      while((line = reader.readLine()) != null){
+        line = line.trim();
+        if(line.length() == 0 || line.startsWith("#")) continue;
+        // argPos() finds the options of the line first
+        final String[] options = line.split("\\s+");
+        String[] modelArgs = new String[options.length + args.length];
+        System.arraycopy(options, 0, modelArgs, 0, options.length);
+        System.arraycopy(args, 0, modelArgs, options.length, args.length);
+        configs.add(createConfig(modelArgs));
+      }
+    }
+    finally{
+      IOUtils.closeQuietly(reader);
+    }
+    new MultiModelTrainer(configs.toArray(new Config[configs.size()])).trainModels(corpusFactory);
   }
 }
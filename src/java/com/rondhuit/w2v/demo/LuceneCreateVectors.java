@@ -30,14 +30,14 @@ public class LuceneCreateVectors extends AbstractCreateVectors {
     paramDesc("-index <dir>", "Set Lucene index <dir> to train the model");
     paramDesc("-analyzer <Lucene Analyzer class>", "Set Lucene Analyzer class name; default is org.apache.lucene.analysis.core.WhitespaceAnalyzer");
     paramDesc("-field <field name>", "Set Lucene field name to be analyzed");
+    paramDesc("-query <query>", "Train only the documents which match the Lucene <query>, e.g. the new documents for -update");
     System.err.printf("\nExamples:\n");
     System.err.printf("java %s -index index -output vec.txt -size 200 -window 5 -sample 0.0001 -negative 5 -hs 0 -binary -cbow -iter 3\n\n",
         LuceneCreateVectors.class.getName());
   }
   
-  void execute(String[] args) throws IOException {
-    if(args.length <= 1) usage();
-    
+  @Override
+  protected LuceneIndexConfig createConfig(String[] args){
     LuceneIndexConfig config = new LuceneIndexConfig();
 
     setConfig(args, config);
@@ -45,10 +45,18 @@ public class LuceneCreateVectors extends AbstractCreateVectors {
     if((i = argPos("-index", args)) >= 0) config.setIndexDir(args[i + 1]);
     if((i = argPos("-analyzer", args)) >= 0) config.setAnalyzer(args[i + 1]);
     if((i = argPos("-field", args)) >= 0) config.setField(args[i + 1]);
+    if((i = argPos("-query", args)) >= 0) config.setQuery(args[i + 1]);
+    return config;
+  }
+  
+  void execute(String[] args) throws IOException {
+    if(args.length <= 1) usage();
+    
+    LuceneIndexConfig config = createConfig(args);
     
     Word2vec w2v = new Word2vec(config);
     System.err.printf("Starting training using Lucene index %s\n", config.getIndexDir());
-    w2v.trainModel(new LuceneIndexCorpusFactory());
+    trainModel(w2v, new LuceneIndexCorpusFactory(), args);
   }
 
   public static void main(String[] args) throws IOException {
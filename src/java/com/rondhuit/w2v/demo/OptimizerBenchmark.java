@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v.demo;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.rondhuit.w2v.AnalogyEvaluator;
+import com.rondhuit.w2v.TextFileConfig;
+import com.rondhuit.w2v.TextFileCorpusFactory;
+import com.rondhuit.w2v.VectorsReader;
+import com.rondhuit.w2v.WeightMatrix;
+import com.rondhuit.w2v.Word2vec;
+
+/**
+ * Measures the analogy accuracy against the training time of each optimizer for the numbers of iterations.
+ */
+public class OptimizerBenchmark extends AbstractCreateVectors {
+
+  @Override
+  protected void localUsage(){
+    paramDesc("-input <file>", "Use text data from <file> to train the model");
+    paramDesc("-questions <file>", "Use the analogy questions of <file>, e.g. questions-words.txt");
+    paramDesc("-iters <list>", "Train with each comma separated number of iterations; default is 1,2,3,5");
+    paramDesc("-threshold <int>", "Answer the questions from the <int> most frequent words; default is 30000 (0 = all)");
+    paramDesc("-optimizer and -iter", "are ignored; every optimizer is measured");
+    System.err.printf("\nExamples:\n");
+    System.err.printf("java %s -input text8 -questions questions-words.txt -size 200 -negative 5 -iters 1,2,3,5\n\n",
+        OptimizerBenchmark.class.getName());
+  }
+
+  @Override
+  protected TextFileConfig createConfig(String[] args){
+    TextFileConfig config = new TextFileConfig();
+    setConfig(args, config);
+    int i;
+    if((i = argPos("-input", args)) >= 0) config.setInputFile(args[i + 1]);
+    return config;
+  }
+
+  void execute(String[] args) throws IOException {
+    if(args.length <= 1 || argPos("-questions", args) < 0) usage();
+
+    int i;
+    final AnalogyEvaluator evaluator = new AnalogyEvaluator(args[argPos("-questions", args) + 1]);
+    final String[] iters = ((i = argPos("-iters", args)) >= 0 ? args[i + 1] : "1,2,3,5").split(",");
+    final int threshold = (i = argPos("-threshold", args)) >= 0 ? Integer.parseInt(args[i + 1]) : 30000;
+    final WeightMatrix.Optimizer[] optimizers = WeightMatrix.Optimizer.values();
+    File output = File.createTempFile("w2v-bench", ".txt");
+    output.deleteOnExit();
+
+    double[][] seconds = new double[optimizers.length][iters.length];
+    double[][] accuracy = new double[optimizers.length][iters.length];
+    for(int o = 0; o < optimizers.length; o++){
+      for(int t = 0; t < iters.length; t++){
+        TextFileConfig config = createConfig(args);
+        config.setOutputFile(output.getPath());
+        config.setOptimizer(optimizers[o]);
+        config.setIter(Integer.parseInt(iters[t].trim()));
+
+        Word2vec w2v = new Word2vec(config);
+        w2v.trainModel(new TextFileCorpusFactory());
+        seconds[o][t] = w2v.getTrainingMillis() / 1000.0;
+        VectorsReader reader = new VectorsReader(output.getPath());
+        reader.readVectorFile();
+        accuracy[o][t] = evaluator.evaluate(reader, threshold);
+      }
+    }
+
+    System.out.printf("\n%-10s %6s %10s %10s\n", "optimizer", "iter", "seconds", "accuracy");
+    for(int o = 0; o < optimizers.length; o++){
+      for(int t = 0; t < iters.length; t++){
+        System.out.printf("%-10s %6s %10.1f %9.2f%%\n", optimizers[o].name().toLowerCase(), iters[t].trim(),
+            seconds[o][t], accuracy[o][t] * 100);
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    new OptimizerBenchmark().execute(args);
+  }
+}
@@ -19,6 +19,7 @@ package com.rondhuit.w2v.demo;
 
 import java.io.IOException;
 
+import com.rondhuit.w2v.Config;
 import com.rondhuit.w2v.TextFileConfig;
 import com.rondhuit.w2v.TextFileCorpusFactory;
 import com.rondhuit.w2v.Word2vec;
@@ -33,18 +34,24 @@ public class TextFileCreateVectors extends AbstractCreateVectors {
         TextFileCreateVectors.class.getName());
   }
   
-  void execute(String[] args) throws IOException {
-    if(args.length <= 1) usage();
-    
+  @Override
+  protected TextFileConfig createConfig(String[] args){
     TextFileConfig config = new TextFileConfig();
 
     setConfig(args, config);
     int i;
     if((i = argPos("-input", args)) >= 0) config.setInputFile(args[i + 1]);
+    return config;
+  }
+  
+  void execute(String[] args) throws IOException {
+    if(args.length <= 1) usage();
+    
+    TextFileConfig config = createConfig(args);
     
     Word2vec w2v = new Word2vec(config);
     System.err.printf("Starting training using text file %s\n", config.getInputFile());
-    w2v.trainModel(new TextFileCorpusFactory());
+    trainModel(w2v, new TextFileCorpusFactory(), args);
   }
 
   public static void main(String[] args) throws IOException {
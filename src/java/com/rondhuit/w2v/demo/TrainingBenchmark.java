@@ -0,0 +1,119 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+
+package com.rondhuit.w2v.demo;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.rondhuit.w2v.TextFileConfig;
+import com.rondhuit.w2v.TextFileCorpusFactory;
+import com.rondhuit.w2v.Word2vec;
+
+/**
+ * Measures the training speed (words/sec) of each architecture and output layer on a text file.
+ */
+public class TrainingBenchmark extends AbstractCreateVectors {
+
+  static final String[] MODES = { "skip-gram+NS", "skip-gram+HS", "CBOW+NS", "CBOW+HS" };
+
+  @Override
+  protected void localUsage(){
+    paramDesc("-input <file>", "Use text data from <file> to train the model");
+    paramDesc("-hs and -cbow", "are ignored; every combination of them is measured");
+    paramDesc("-scaling <list>", "Instead, measure the mode given by -cbow/-hs with each comma separated number of threads,");
+    paramDesc("", "with and without -hot-rows (default 1000 when it is not given)");
+    System.err.printf("\nExamples:\n");
+    System.err.printf("java %s -input data.txt -size 200 -window 5 -negative 5 -threads 4 -iter 3\n",
+        TrainingBenchmark.class.getName());
+    System.err.printf("java %s -input data.txt -size 200 -negative 5 -scaling 1,2,4,8 -hot-rows 1000\n\n",
+        TrainingBenchmark.class.getName());
+  }
+
+  @Override
+  protected TextFileConfig createConfig(String[] args){
+    TextFileConfig config = new TextFileConfig();
+    setConfig(args, config);
+    int i;
+    if((i = argPos("-input", args)) >= 0) config.setInputFile(args[i + 1]);
+    return config;
+  }
+
+  void execute(String[] args) throws IOException {
+    if(args.length <= 1) usage();
+
+    File output = File.createTempFile("w2v-bench", ".txt");
+    output.deleteOnExit();
+    int i;
+    if((i = argPos("-scaling", args)) >= 0){
+      scaling(args, args[i + 1].split(","), output);
+      return;
+    }
+
+    double[] wps = new double[MODES.length];
+    for(int m = 0; m < MODES.length; m++){
+      TextFileConfig config = createConfig(args);
+      config.setOutputFile(output.getPath());
+      config.setUseContinuousBagOfWords(m >= 2);
+      config.setUseHierarchicalSoftmax(m % 2 == 1);
+      if(m % 2 == 0 && config.getNegative() == 0) config.setNegative(5);
+      if(m % 2 == 1) config.setNegative(0);
+      if((i = argPos("-alpha", args)) < 0) config.setAlpha(config.useContinuousBagOfWords() ? 0.05f : 0.025f);
+
+      Word2vec w2v = new Word2vec(config);
+      w2v.trainModel(new TextFileCorpusFactory());
+      wps[m] = w2v.getTrainedWords() / (w2v.getTrainingMillis() / 1000.0);
+    }
+
+    System.out.printf("\n%-16s %16s\n", "mode", "words/sec");
+    for(int m = 0; m < MODES.length; m++){
+      System.out.printf("%-16s %16.0f\n", MODES[m], wps[m]);
+    }
+  }
+
+  /**
+   * Measures how the training speed scales with the number of threads, with and without
+   * the thread private copies of the hot rows
+   */
+  void scaling(String[] args, String[] threads, File output) throws IOException {
+    int i;
+    final int hotRows = (i = argPos("-hot-rows", args)) >= 0 ? Integer.parseInt(args[i + 1]) : 1000;
+    double[][] wps = new double[threads.length][2];
+    for(int t = 0; t < threads.length; t++){
+      for(int h = 0; h < 2; h++){
+        TextFileConfig config = createConfig(args);
+        config.setOutputFile(output.getPath());
+        config.setNumThreads(Integer.parseInt(threads[t].trim()));
+        config.setHotRows(h == 0 ? 0 : hotRows);
+
+        Word2vec w2v = new Word2vec(config);
+        w2v.trainModel(new TextFileCorpusFactory());
+        wps[t][h] = w2v.getTrainedWords() / (w2v.getTrainingMillis() / 1000.0);
+      }
+    }
+
+    System.out.printf("\n%-8s %16s %16s\n", "threads", "words/sec", "hot-rows " + hotRows);
+    for(int t = 0; t < threads.length; t++){
+      System.out.printf("%-8s %16.0f %16.0f\n", threads[t].trim(), wps[t][0], wps[t][1]);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    new TrainingBenchmark().execute(args);
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v.demo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.rondhuit.w2v.VectorKernel;
+
+/**
+ * Measures the nanoseconds per row of each operation of each {@link VectorKernel} on the double, float and
+ * off-heap storages, for rows which are picked at random from a matrix like the training does.
+ */
+public class VectorKernelBenchmark {
+
+  static final String[] OPS = { "dot", "accumulate", "update" };
+  static final String[] STORAGES = { "double[]", "float[]", "FloatBuffer" };
+  static final int ROUNDS = 5;
+  static final VectorKernel.Type[] TYPES = { VectorKernel.Type.SCALAR, VectorKernel.Type.UNROLLED };
+
+  static void usage(){
+    System.err.printf("Usage: java %s [-sizes <list>] [-rows <int>] [-millis <int>]\n", VectorKernelBenchmark.class.getName());
+    System.err.printf("\t-sizes <list>\n\t\tMeasure each comma separated vector size; default is 100,200,300\n");
+    System.err.printf("\t-rows <int>\n\t\tPick the rows from <int> rows; default is 100000\n");
+    System.err.printf("\t-millis <int>\n\t\tMeasure each case of each kernel for <int> milliseconds in total; default is 1000\n\n");
+    System.exit(0);
+  }
+
+  static int argPos(String param, String[] args){
+    for(int i = 0; i < args.length; i++){
+      if(param.equals(args[i])){
+        if(i == args.length - 1) usage();
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public static void main(String[] args){
+    if(argPos("-h", args) >= 0 || argPos("-help", args) >= 0) usage();
+    int i;
+    final String[] sizes = (i = argPos("-sizes", args)) >= 0 ? args[i + 1].split(",") : new String[]{ "100", "200", "300" };
+    final int rows = (i = argPos("-rows", args)) >= 0 ? Integer.parseInt(args[i + 1]) : 100000;
+    final long millis = (i = argPos("-millis", args)) >= 0 ? Long.parseLong(args[i + 1]) : 1000;
+
+    System.out.printf("%-6s %-12s %-12s %12s %12s %8s\n", "size", "storage", "operation", "scalar ns", "unrolled ns", "ratio");
+    for(String size : sizes){
+      final int n = Integer.parseInt(size.trim());
+      final Random random = new Random(1);
+      final double[] dw = new double[rows * n];
+      final float[] fw = new float[rows * n];
+      final FloatBuffer bw = ByteBuffer.allocateDirect(rows * n * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+      for(int k = 0; k < rows * n; k++){
+        dw[k] = fw[k] = (random.nextFloat() - 0.5F) / n;
+        bw.put(k, fw[k]);
+      }
+      final double[] x = new double[n];
+      for(int k = 0; k < n; k++) x[k] = random.nextDouble() - 0.5;
+
+      for(int s = 0; s < STORAGES.length; s++){
+        for(int op = 0; op < OPS.length; op++){
+          // the best of the rounds, which alternate the kernels
+          double[] ns = new double[TYPES.length];
+          Arrays.fill(ns, Double.MAX_VALUE);
+          for(int round = 0; round <= ROUNDS; round++){
+            for(int t = 0; t < TYPES.length; t++){
+              final double r = run(VectorKernel.getInstance(TYPES[t], n), s, op, dw, fw, bw, x, n, rows, millis / ROUNDS);
+              if(round > 0) ns[t] = Math.min(ns[t], r);     // round 0 warms up
+            }
+          }
+          System.out.printf("%-6d %-12s %-12s %12.1f %12.1f %8.2f\n", n, STORAGES[s], OPS[op], ns[0], ns[1], ns[1] / ns[0]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the nanoseconds per row
+   */
+  static double run(VectorKernel kernel, int storage, int op, double[] dw, float[] fw, FloatBuffer bw,
+      double[] x, int n, int rows, long millis){
+    final double[] y = new double[n];
+    final int[] offs = new int[BATCH];
+    long seed = 1, count = 0;
+    double sink = 0;
+    final long start = System.nanoTime(), end = start + millis * 1000000L;
+    long now;
+    do{
+      for(int k = 0; k < BATCH; k++){
+        seed = seed * 25214903917L + 11;
+        offs[k] = (int)((seed >>> 16) % rows) * n;
+      }
+      sink += batch(kernel, storage * OPS.length + op, dw, fw, bw, x, y, offs, n);
+      count += BATCH;
+      now = System.nanoTime();
+    } while(now < end);
+    if(sink + y[0] == 42) System.err.println();      // keeps the results alive
+    return (double)(now - start) / count;
+  }
+
+  static final int BATCH = 10000;
+
+  static double batch(VectorKernel kernel, int c, double[] dw, float[] fw, FloatBuffer bw, double[] x, double[] y, int[] offs, int n){
+    final double g = 1e-6;
+    double sink = 0;
+    switch(c){
+    case 0: for(int off : offs) sink += kernel.dot(x, dw, off, n); break;
+    case 1: for(int off : offs) kernel.accumulate(dw, off, g, y, n); break;
+    case 2: for(int off : offs) kernel.update(dw, off, g, x, n); break;
+    case 3: for(int off : offs) sink += kernel.dot(x, fw, off, n); break;
+    case 4: for(int off : offs) kernel.accumulate(fw, off, g, y, n); break;
+    case 5: for(int off : offs) kernel.update(fw, off, g, x, n); break;
+    case 6: for(int off : offs) sink += kernel.dot(x, bw, off, n); break;
+    case 7: for(int off : offs) kernel.accumulate(bw, off, g, y, n); break;
+    default: for(int off : offs) kernel.update(bw, off, g, x, n); break;
+    }
+    return sink;
+  }
+}
@@ -23,7 +23,7 @@ public class LuceneIndexConfig extends Config {
 
   static final String DEF_ANALYZER     = "org.apache.lucene.analysis.standard.StandardAnalyzer";
   
-  private String indexDir, field, analyzer = DEF_ANALYZER;
+  private String indexDir, field, analyzer = DEF_ANALYZER, query;
 
   public LuceneIndexConfig setIndexDir(String indexDir){
     this.indexDir = indexDir;
@@ -51,4 +51,18 @@ public class LuceneIndexConfig extends Config {
   public String getAnalyzer(){
     return analyzer;
   }
+
+  /**
+   * Sets the query to select the documents to train, e.g. the documents which have been
+   * added or changed since the model was trained. It is parsed by the Lucene query parser
+   * with the field as the default field.
+   */
+  public LuceneIndexConfig setQuery(String query){
+    this.query = query;
+    return this;
+  }
+  
+  public String getQuery(){
+    return query;
+  }
 }
@@ -25,20 +25,30 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermRangeQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 
+import com.rondhuit.w2v.ChunkScheduler;
 import com.rondhuit.w2v.Config;
 import com.rondhuit.w2v.Corpus;
+import com.rondhuit.w2v.VocabWord;
 
 public class LuceneIndexCorpus extends Corpus {
 
@@ -46,7 +56,7 @@ public class LuceneIndexCorpus extends Corpus {
   private final String field;
   private TopDocs topDocs;
   private final Analyzer analyzer;
-  int tdPos;
+  int tdPos, tdEnd;
 
   public LuceneIndexCorpus(Config config) throws IOException {
     super(config);
@@ -79,30 +89,83 @@ public class LuceneIndexCorpus extends Corpus {
     analyzer = loadAnalyzer(((LuceneIndexConfig)config).getAnalyzer());
   }
 
+  /**
+   * Counts the terms of the field in the documents which are trained. Without the query of the config
+   * they are the total frequencies of the terms, otherwise the frequencies in the matched documents.
+   */
   @Override
   public void learnVocab() throws IOException {
     super.learnVocab();
 
-    final String field = ((LuceneIndexConfig)config).getField();
-    final Terms terms = MultiFields.getTerms(reader, field);
-    final BytesRef maxTerm = terms.getMax();
-    final BytesRef minTerm = terms.getMin();
-    Query q = new TermRangeQuery(field, minTerm, maxTerm, true, true);
-    IndexSearcher searcher = new IndexSearcher(reader);
-    topDocs = searcher.search(q, Integer.MAX_VALUE);
+    final Terms terms = searchDocs();
+    final FixedBitSet matched = ((LuceneIndexConfig)config).getQuery() == null ? null : matchedDocs();
 
     TermsEnum termsEnum = null;
     termsEnum = terms.iterator(termsEnum);
+    DocsEnum docsEnum = null;
 
     termsEnum.seekCeil(new BytesRef());
     BytesRef term = termsEnum.term();
     while(term != null){
-      int p = addWordToVocab(term.utf8ToString());
-      vocab[p].setCn((int)termsEnum.totalTermFreq());
+      long cn = 0;
+      if(matched == null){
+        cn = termsEnum.totalTermFreq();
+      }
+      else{
+        // the matched documents are the live documents of the postings
+        docsEnum = termsEnum.docs(matched, docsEnum, DocsEnum.FLAG_FREQS);
+        while(docsEnum.nextDoc() != DocIdSetIterator.NO_MORE_DOCS){
+          cn += docsEnum.freq();
+        }
+      }
+      if(cn > 0){
+        int p = addWordToVocab(term.utf8ToString());
+        vocab[p].setCn(cn);
+      }
       term = termsEnum.next();
     }
   }
 
+  FixedBitSet matchedDocs(){
+    FixedBitSet matched = new FixedBitSet(reader.maxDoc());
+    for(ScoreDoc scoreDoc : topDocs.scoreDocs){
+      matched.set(scoreDoc.doc);
+    }
+    return matched;
+  }
+
+  @Override
+  public void restoreVocab(VocabWord[] words, long trainWords) throws IOException {
+    super.restoreVocab(words, trainWords);
+    searchDocs();
+  }
+
+  /**
+   * Collects the documents which have the field and match the query of the config if it is given
+   */
+  Terms searchDocs() throws IOException {
+    final LuceneIndexConfig liConfig = (LuceneIndexConfig)config;
+    final String field = liConfig.getField();
+    final Terms terms = MultiFields.getTerms(reader, field);
+    final BytesRef maxTerm = terms.getMax();
+    final BytesRef minTerm = terms.getMin();
+    Query q = new TermRangeQuery(field, minTerm, maxTerm, true, true);
+    if(liConfig.getQuery() != null){
+      BooleanQuery bq = new BooleanQuery();
+      bq.add(q, Occur.MUST);
+      try{
+        bq.add(new QueryParser(field, analyzer).parse(liConfig.getQuery()), Occur.MUST);
+      }
+      catch(ParseException e){
+        throw new IllegalArgumentException("cannot parse the query: " + liConfig.getQuery(), e);
+      }
+      q = bq;
+    }
+    IndexSearcher searcher = new IndexSearcher(reader);
+    topDocs = searcher.search(q, Integer.MAX_VALUE);
+    return terms;
+  }
+
   TokenStream tokenStream = null;
   CharTermAttribute termAtt = null;
   String[] values = new String[]{};
@@ -112,31 +175,78 @@ public class LuceneIndexCorpus extends Corpus {
   public void rewind(int numThreads, int id) throws IOException {
     super.rewind(numThreads, id);
     tdPos = topDocs.totalHits / numThreads * id;
+    tdEnd = topDocs.totalHits;
+  }
+
+  @Override
+  public int getNumChunks(int numThreads){
+    return Math.max(Math.min(numThreads * ChunkScheduler.CHUNKS_PER_THREAD, topDocs.totalHits), 1);
+  }
+
+  /**
+   * A chunk is a range of the matched documents.
+   */
+  @Override
+  public void seekChunk(int chunk, int numChunks) throws IOException {
+    super.rewind(numChunks, chunk);
+    tdPos = (int)((long)topDocs.totalHits * chunk / numChunks);
+    tdEnd = (int)((long)topDocs.totalHits * (chunk + 1) / numChunks);
+    if(tokenStream != null){
+      tokenStream.end();
+      tokenStream.close();
+      tokenStream = null;
+    }
+    values = new String[]{};
+    valPos = 0;
   }
 
   @Override
   public String nextWord() throws IOException {
+    return nextToken() ? new String(termAtt.buffer(), 0, termAtt.length()) : null;
+  }
+
+  /**
+   * Looks up the term of the token in the vocabulary without making a String of it
+   */
+  @Override
+  public int readWordIndex() throws IOException {
+    if(nextToken()){
+      return searchVocab(termAtt.buffer(), 0, termAtt.length());
+    }
+    else{
+      if(eoc) return -2;    // end of corpus
+      else return -3;       // end of sentence
+    }
+  }
+
+  /**
+   * Advances to the next token of which the term is in termAtt
+   * @return false at the end of the value (sentence) or of the corpus
+   */
+  boolean nextToken() throws IOException {
     
     while(true){
       // check the tokenStream first
       if(tokenStream != null && tokenStream.incrementToken()){
-        return new String(termAtt.buffer(), 0, termAtt.length());
+        return true;
       }
 
-      if(tokenStream != null)
+      if(tokenStream != null){
+        tokenStream.end();
         tokenStream.close();
+      }
       if(valPos < values.length){
         tokenStream = analyzer.tokenStream(field, values[valPos++]);
         termAtt = tokenStream.getAttribute(CharTermAttribute.class);
         tokenStream.reset();
         eoc = false;
-        return null;
+        return false;
       }
       else{
-        if(tdPos >= topDocs.totalHits){
+        if(tdPos >= tdEnd){
           tokenStream = null;
           eoc = true;
-          return null;   // end of index == end of corpus
+          return false;   // end of index == end of corpus
         }
         Document doc = reader.document(topDocs.scoreDocs[tdPos++].doc);
         values = doc.getValues(field);   // This method returns an empty array when there are no matching fields.
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaGradWeightMatrixTest {
+
+  File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = TestCorpora.createTempDir("w2v-adagrad");
+  }
+
+  @After
+  public void tearDown(){
+    TestCorpora.delete(dir);
+  }
+
+  static double step(WeightMatrix matrix, int row, double g, double[] x){
+    final double before = matrix.get(row, 0);
+    matrix.update(row, g, x);
+    return matrix.get(row, 0) - before;
+  }
+
+  @Test
+  public void testStepShrinksWithSum(){
+    final double alpha = 0.025;
+    final WeightMatrix matrix = new DoubleArrayWeightMatrix(2, 4, VectorKernel.getInstance(VectorKernel.Type.SCALAR, 4));
+    final float[] sums = AdaGradWeightMatrix.createSums(2);
+    final AdaGradWeightMatrix adaGrad = new AdaGradWeightMatrix(matrix, sums, alpha);
+    final double[] x = { 1, 1, 1, 1 };
+
+    double last = Double.MAX_VALUE, sum = AdaGradWeightMatrix.INITIAL_SUM;
+    for(int i = 0; i < 20; i++){
+      final double step = step(adaGrad, 0, alpha, x);
+      assertTrue("step " + i, step > 0 && step < last);
+      assertTrue("sum " + i, sums[0] > sum);
+      // the step is alpha over the root of the sum which includes the gradient of the step
+      assertEquals(alpha / Math.sqrt(sums[0]), step, 1e-9);
+      last = step;
+      sum = sums[0];
+    }
+
+    // the other row has its own sum and takes a full step
+    assertEquals(AdaGradWeightMatrix.INITIAL_SUM, sums[1], 0);
+    final double first = step(adaGrad, 1, alpha, x);
+    assertTrue(first > last * 4);
+
+    // a larger gradient adds more to the sum
+    final float[] other = AdaGradWeightMatrix.createSums(2);
+    new AdaGradWeightMatrix(matrix, other, alpha).update(0, alpha * 3, x);
+    assertTrue(other[0] - AdaGradWeightMatrix.INITIAL_SUM > 8 * (sums[1] - AdaGradWeightMatrix.INITIAL_SUM));
+  }
+
+  @Test
+  public void testSumsSurviveCheckpoint() throws IOException {
+    final TextFileConfig config = new TextFileConfig();
+    config.setInputFile(TestCorpora.writeRandomCorpus(new File(dir, "corpus.txt"), 1000, 50));
+    config.setOutputFile(new File(dir, "vectors.txt").getPath())
+      .setCheckpointFile(new File(dir, "checkpoint").getPath())
+      .setOptimizer(WeightMatrix.Optimizer.ADAGRAD)
+      .setLayer1Size(10).setMinCount(1).setNumThreads(2).setIter(2);
+    final Word2vec trained = new Word2vec(config);
+    trained.trainModel(new TextFileCorpusFactory());
+    assertNotNull(trained.adaGradSums);
+
+    final Word2vec restored = new Word2vec(config);
+    final Corpus corpus = new TextFileCorpus(config);
+    Checkpoint.read(new File(config.getCheckpointFile()), restored, corpus, config);
+    assertNotNull(restored.adaGradSums);
+    // syn1 is not used without -hs
+    assertEquals(null, restored.adaGradSums[1]);
+    for(int index : new int[]{ 0, 2 }){
+      final float[] expected = trained.adaGradSums[index], actual = restored.adaGradSums[index];
+      assertEquals(corpus.getVocabSize(), actual.length);
+      boolean grown = false;
+      for(int i = 0; i < actual.length; i++){
+        assertEquals("matrix " + index + " row " + i, expected[i], actual[i], 0);
+        grown |= actual[i] > AdaGradWeightMatrix.INITIAL_SUM;
+      }
+      assertTrue(grown);
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *  
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+public class AliasSamplerTest {
+
+  static VocabWord[] zipf(int size){
+    VocabWord[] vocab = new VocabWord[size];
+    for(int i = 0; i < size; i++){
+      vocab[i] = new VocabWord("w" + i);
+      vocab[i].setCn(1000000 / (i + 1));
+    }
+    return vocab;
+  }
+
+  static double[] frequencies(NegativeSampler sampler, int size, int samples){
+    FastRandom random = FastRandom.create(FastRandom.Type.LCG, 1);
+    double[] freq = new double[size];
+    for(int i = 0; i < samples; i++){
+      freq[sampler.sample(random.next())] += 1.0 / samples;
+    }
+    return freq;
+  }
+
+  @Test
+  public void testDistributionParityWithUnigramTable(){
+    final int size = 50, samples = 2000000;
+    VocabWord[] vocab = zipf(size);
+    double[] alias = frequencies(new AliasSampler(vocab, size), size, samples);
+    double[] table = frequencies(new UnigramTableSampler(vocab, size, 10000000), size, samples);
+
+    // both remap the end of sentence to a random word
+    assertEquals(0, alias[0], 0);
+    assertEquals(0, table[0], 0);
+    for(int i = 1; i < size; i++){
+      final double sd = Math.sqrt(table[i] / samples);
+      assertEquals("word " + i, table[i], alias[i], 6 * sd + 1e-4);
+    }
+  }
+
+  @Test
+  public void testEndOfSentenceIsReplacedLikeUnsignedC(){
+    FastRandom random = FastRandom.create(FastRandom.Type.LCG, 7);
+    final BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    final BigInteger n = BigInteger.valueOf(4999);
+    for(int i = 0; i < 100000; i++){
+      final long r = random.next();
+      // next_random % (vocab_size - 1) + 1 of the C tool
+      final int expected = BigInteger.valueOf(r).and(mask).mod(n).intValue() + 1;
+      assertEquals(expected, NegativeSampler.replaceEndOfSentence(r, 5000));
+    }
+  }
+
+  @Test
+  public void testEveryColumnOfLargeVocabularyIsReachable(){
+    final int vocabSize = 30000000;
+    assertEquals(0, AliasSampler.column(0L, vocabSize));
+    assertEquals(vocabSize - 1, AliasSampler.column(-1L, vocabSize));
+    // columns above 2^24 are distinct for the adjacent random values
+    final long step = (1L << 32) / vocabSize + 1;
+    final int c1 = AliasSampler.column(0xF0000000L << 32, vocabSize);
+    final int c2 = AliasSampler.column((0xF0000000L + step) << 32, vocabSize);
+    assertTrue(c1 > 1 << 24);
+    assertEquals(c1 + 1, c2);
+  }
+}
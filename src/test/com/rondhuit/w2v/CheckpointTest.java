@@ -0,0 +1,126 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointTest {
+
+  File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = TestCorpora.createTempDir("w2v-checkpoint");
+  }
+
+  @After
+  public void tearDown(){
+    TestCorpora.delete(dir);
+  }
+
+  TextFileConfig config(long timeBudget) throws IOException {
+    StringBuilder longWord = new StringBuilder();
+    for(int i = 0; i < 40000; i++){
+      longWord.append('é');
+    }
+    TextFileConfig config = new TextFileConfig();
+    // a word which is longer than writeUTF allows
+    config.setInputFile(TestCorpora.writeRandomCorpus(new File(dir, "corpus.txt"), 2000, 50, longWord.toString(), 500));
+    config.setOutputFile(new File(dir, "vectors.txt").getPath())
+      .setCheckpointFile(new File(dir, "checkpoint").getPath())
+      .setTimeBudget(timeBudget)
+      .setLayer1Size(10).setMinCount(1).setNumThreads(2).setHotRows(10).setIter(2);
+    return config;
+  }
+
+  @Test
+  public void testSaveAndRead() throws IOException {
+    Config config = config(0);
+    Word2vec trained = new Word2vec(config);
+    trained.trainModel(new TextFileCorpusFactory());
+
+    Word2vec restored = new Word2vec(config);
+    Corpus corpus = new TextFileCorpus(config);
+    Checkpoint checkpoint = Checkpoint.read(new File(config.getCheckpointFile()), restored, corpus, config);
+
+    Corpus learned = new TextFileCorpus(config);
+    learned.learnVocab();
+    learned.sortVocab();
+    final int vocabSize = learned.getVocabSize();
+    assertEquals(vocabSize, corpus.getVocabSize());
+    assertEquals(learned.getTrainWords(), corpus.getTrainWords());
+    boolean longWord = false;
+    for(int i = 0; i < vocabSize; i++){
+      final VocabWord expected = learned.getVocab()[i], actual = corpus.getVocab()[i];
+      assertEquals(expected.word, actual.word);
+      assertEquals(expected.cn, actual.cn);
+      longWord |= actual.word != null && actual.word.getBytes(Word2vec.ENCODING).length > 65535;
+    }
+    assertTrue(longWord);
+
+    final double[] expected = new double[config.getLayer1Size()], actual = new double[config.getLayer1Size()];
+    for(int i = 0; i < vocabSize; i++){
+      trained.syn0.copyRow(i, expected);
+      restored.syn0.copyRow(i, actual);
+      for(int j = 0; j < expected.length; j++){
+        assertEquals((float)expected[j], (float)actual[j], 0);
+      }
+    }
+    for(int i = 0; i < vocabSize; i++){
+      trained.syn1neg.copyRow(i, expected);
+      restored.syn1neg.copyRow(i, actual);
+      for(int j = 0; j < expected.length; j++){
+        assertEquals((float)expected[j], (float)actual[j], 0);
+      }
+    }
+
+    assertEquals(trained.getTrainedWords(), checkpoint.getTrainedWords());
+    assertEquals(config.getIter() - 1, checkpoint.getPosition().getIteration());
+    assertEquals(0, checkpoint.getPosition().getPendingChunks().length);
+    assertEquals(config.getAlpha(), checkpoint.getStartingAlpha(), 0);
+    assertEquals(TrainModelThread.scheduleAlpha(config.getAlpha(), checkpoint.getTrainedWords(),
+        (double)config.getIter() * corpus.getTrainWords()), checkpoint.getAlpha(), 0);
+  }
+
+  @Test
+  public void testResumeKeepsElapsedTime() throws IOException {
+    Config config = config(1);
+    new Word2vec(config).trainModel(new TextFileCorpusFactory());
+    final File file = new File(config.getCheckpointFile());
+    Checkpoint first = Checkpoint.read(file, new Word2vec(config), new TextFileCorpus(config), config);
+    assertTrue(first.getElapsedMillis() >= 1000);
+    // the learning rate of the time budget, not of the iterations
+    assertEquals(TrainModelThread.scheduleAlpha(config.getAlpha(), first.getElapsedMillis(), 1000.0), first.getAlpha(), 0);
+
+    // the budget has been used up before the resume
+    Word2vec resumed = new Word2vec(config);
+    resumed.resumeModel(new TextFileCorpusFactory());
+    assertTrue(resumed.getTrainingMillis() < 1000);
+    Checkpoint second = Checkpoint.read(file, new Word2vec(config), new TextFileCorpus(config), config);
+    assertTrue(second.getElapsedMillis() >= first.getElapsedMillis());
+    assertEquals(config.getAlpha() * 0.0001f, second.getAlpha(), 0);
+  }
+}
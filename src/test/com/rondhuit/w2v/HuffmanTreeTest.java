@@ -0,0 +1,145 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HuffmanTreeTest {
+
+  /**
+   * The codes and the points of every word as separate arrays, built the same way as the original C code
+   */
+  static class Reference {
+    final int[] codelen;
+    final int[][] point;
+    final int[][] code;
+
+    Reference(VocabWord[] vocab, int vocabSize){
+      long[] count = new long[vocabSize * 2 + 1];
+      int[] binary = new int[vocabSize * 2 + 1];
+      int[] parentNode = new int[vocabSize * 2 + 1];
+      for(int a = 0; a < vocabSize; a++) count[a] = vocab[a].cn;
+      for(int a = vocabSize; a < vocabSize * 2; a++) count[a] = Long.MAX_VALUE;
+      int pos1 = vocabSize - 1, pos2 = vocabSize;
+      for(int a = 0; a < vocabSize - 1; a++){
+        final int[] min = new int[2];
+        for(int m = 0; m < 2; m++){
+          if(pos1 >= 0 && count[pos1] < count[pos2]) min[m] = pos1--;
+          else min[m] = pos2++;
+        }
+        count[vocabSize + a] = count[min[0]] + count[min[1]];
+        parentNode[min[0]] = vocabSize + a;
+        parentNode[min[1]] = vocabSize + a;
+        binary[min[1]] = 1;
+      }
+
+      codelen = new int[vocabSize];
+      point = new int[vocabSize][];
+      code = new int[vocabSize][];
+      for(int a = 0; a < vocabSize; a++){
+        int[] pathCode = new int[vocabSize * 2], pathPoint = new int[vocabSize * 2];
+        int b = a, i = 0;
+        while(b != vocabSize * 2 - 2){
+          pathCode[i] = binary[b];
+          pathPoint[i] = b;
+          i++;
+          b = parentNode[b];
+        }
+        codelen[a] = i;
+        point[a] = new int[i + 1];
+        code[a] = new int[i];
+        point[a][0] = vocabSize - 2;
+        for(b = 0; b < i; b++){
+          code[a][i - b - 1] = pathCode[b];
+          point[a][i - b] = pathPoint[b] - vocabSize;
+        }
+      }
+    }
+  }
+
+  static Corpus corpus(long[] counts) throws IOException {
+    Config config = LargeCountsTest.config();
+    LargeCountsTest.SyntheticCorpus corpus = new LargeCountsTest.SyntheticCorpus(config, counts, 0);
+    corpus.learnVocab();
+    corpus.sortVocab();
+    return corpus;
+  }
+
+  /**
+   * Compares the tree of the corpus with the reference and returns true if the code of a word crosses
+   * a long of the packed codes
+   */
+  static boolean assertSameCodes(Corpus corpus){
+    final int vocabSize = corpus.getVocabSize();
+    final HuffmanTree tree = corpus.createBinaryTree();
+    final Reference reference = new Reference(corpus.getVocab(), vocabSize);
+    boolean crossing = false;
+    for(int w = 0; w < vocabSize; w++){
+      final int start = tree.offsets[w];
+      assertEquals("word " + w, reference.codelen[w], tree.getCodeLength(w));
+      for(int d = 0; d < reference.codelen[w]; d++){
+        assertEquals("word " + w + " point " + d, reference.point[w][d], tree.getPoint(start + d));
+        assertEquals("word " + w + " code " + d, reference.code[w][d], tree.getCode(start + d));
+      }
+      crossing |= start >>> 6 != (tree.offsets[w + 1] - 1) >>> 6;
+    }
+    assertEquals(tree.points.length, tree.offsets[vocabSize]);
+    assertEquals(tree.points.length, corpus.getTotalCodeLength());
+    return crossing;
+  }
+
+  @Test
+  public void testSameAsReference() throws IOException {
+    // Fibonacci counts make the codes as long as the vocabulary
+    final long[] fibonacci = new long[40];
+    fibonacci[39] = fibonacci[38] = 1;
+    for(int i = 37; i >= 0; i--) fibonacci[i] = fibonacci[i + 1] + fibonacci[i + 2];
+    assertTrue(assertSameCodes(corpus(fibonacci)));
+    assertEquals(39, corpus(fibonacci).createBinaryTree().getCodeLength(39));
+
+    final Random random = new Random(0);
+    for(int n = 2; n < 300; n += 7){
+      final long[] counts = new long[n];
+      for(int i = 0; i < n; i++){
+        counts[i] = 1 + random.nextInt(random.nextBoolean() ? 10 : 100000);
+      }
+      assertSameCodes(corpus(counts));
+    }
+  }
+
+  @Test
+  public void testCodesAcrossLongs() throws IOException {
+    // 32 words of about the same counts have codes of 5 bits, so the code of word 12 is the bits 60 to 64
+    final long[] counts = new long[32];
+    for(int i = 0; i < counts.length; i++) counts[i] = 100 + (31 - i);
+    Corpus corpus = corpus(counts);
+    assertTrue(assertSameCodes(corpus));
+    HuffmanTree tree = corpus.createBinaryTree();
+    for(int w = 0; w < counts.length; w++){
+      assertEquals(5, tree.getCodeLength(w));
+    }
+    assertEquals(60, tree.offsets[12]);
+    assertEquals(3, tree.codes.length);
+  }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Corpora of more than Integer.MAX_VALUE tokens, whose counts are given instead of being counted from text
+ */
+public class LargeCountsTest {
+
+  static final long BILLION = 1000000000L;
+
+  /**
+   * The vocabulary of the given counts, where word 0 is the end of sentence, and a stream of the words
+   * which is generated while it is read instead of the text of the counts
+   */
+  static class SyntheticCorpus extends Corpus {
+
+    final long[] counts;
+    final int streamWords;
+    int position;
+
+    SyntheticCorpus(Config config, long[] counts, int streamWords) throws IOException {
+      super(config);
+      this.counts = counts;
+      this.streamWords = streamWords;
+    }
+
+    static String word(int i){
+      return i == 0 ? null : "w" + i;
+    }
+
+    @Override
+    public void learnVocab() throws IOException {
+      super.learnVocab();
+      // the rare words first, so that the sorting is not a no-op
+      for(int i = counts.length - 1; i >= 0; i--){
+        vocab[addWordToVocab(word(i))].cn = counts[i];
+      }
+    }
+
+    @Override
+    public void rewind(int numThreads, int id) throws IOException {
+      super.rewind(numThreads, id);
+      position = 0;
+    }
+
+    /**
+     * Streams the words w1, w2, ..., wn, w1, ... in sentences of 10 words, and a new word at the end
+     */
+    @Override
+    public String nextWord() throws IOException {
+      if(position > streamWords){
+        eoc = true;
+        return null;
+      }
+      final int p = position++;
+      if(p == streamWords) return "new";
+      if(p % 11 == 10) return null;
+      return word(p % (counts.length - 1) + 1);
+    }
+  }
+
+  static Config config(){
+    Config config = new TextFileConfig();
+    config.setMinCount(1).setNumThreads(2).setIter(5);
+    return config;
+  }
+
+  /**
+   * Zipf counts of the words, of which the most frequent ones are over 2^31
+   */
+  static long[] zipf(int size){
+    long[] counts = new long[size];
+    for(int i = 0; i < size; i++){
+      counts[i] = 5 * BILLION / (i + 1);
+    }
+    return counts;
+  }
+
+  static SyntheticCorpus sortedCorpus(Config config, long[] counts, int streamWords) throws IOException {
+    SyntheticCorpus corpus = new SyntheticCorpus(config, counts, streamWords);
+    corpus.learnVocab();
+    corpus.sortVocab();
+    return corpus;
+  }
+
+  @Test
+  public void testSortedCounts() throws IOException {
+    final long[] counts = zipf(1000);
+    final Config config = config();
+    config.setMinCount(10000000);
+    SyntheticCorpus corpus = sortedCorpus(config, counts, 0);
+
+    long sum = 0;
+    int kept = 0;
+    for(long count : counts){
+      if(count >= config.getMinCount()){
+        sum += count;
+        kept++;
+      }
+    }
+    assertTrue(sum > 10 * (long)Integer.MAX_VALUE);
+    assertEquals(sum, corpus.getTrainWords());
+    assertEquals(kept, corpus.getVocabSize());
+    for(int i = 0; i < kept; i++){
+      assertEquals(SyntheticCorpus.word(i), corpus.getVocab()[i].word);
+      assertEquals(counts[i], corpus.getVocab()[i].cn);
+    }
+    assertTrue(corpus.getVocab()[1].cn > Integer.MAX_VALUE);
+  }
+
+  @Test
+  public void testKeepProbabilities() throws IOException {
+    final long[] counts = zipf(1000);
+    final Config config = config();
+    SyntheticCorpus corpus = sortedCorpus(config, counts, 0);
+
+    final double threshold = config.getSample() * (double)corpus.getTrainWords();
+    final float[] keep = corpus.getKeepProbabilities();
+    for(int i = 0; i < corpus.getVocabSize(); i++){
+      final double expected = (Math.sqrt(counts[i] / threshold) + 1) * threshold / counts[i];
+      assertEquals("word " + i, expected, keep[i], expected * 1e-6);
+    }
+    // the frequent words are subsampled, and none is dropped altogether
+    assertTrue(keep[0] > 0 && keep[0] < 0.5);
+    assertTrue(keep[999] > 1);
+  }
+
+  @Test
+  public void testReducedCounts(){
+    VocabCounter counter = new VocabCounter(10);
+    final byte[] frequent = { 'a' };
+    for(int i = 0; i < 3; i++){
+      counter.add(frequent, 0, 1, 3 * BILLION);
+    }
+    // the rare words make the counter reduce the table a few times
+    for(int i = 0; i < 100; i++){
+      final byte[] rare = ("r" + i).getBytes(VocabCounter.LATIN1);
+      counter.add(rare, 0, rare.length, 1);
+    }
+    assertEquals("a", counter.getWord(0));
+    assertEquals(9 * BILLION, counter.getCount(0));
+    assertEquals(9 * BILLION + 100, counter.getWords());
+  }
+
+  @Test
+  public void testUpdatedCounts() throws IOException {
+    final long[] counts = { 3 * BILLION, 4 * BILLION, 3 * BILLION, 2 * BILLION };
+    final Config config = config();
+    SyntheticCorpus source = sortedCorpus(config, counts, 0);
+
+    // the stream of 1100 words is counted on top of the restored counts
+    SyntheticCorpus corpus = new SyntheticCorpus(config, counts, 1100);
+    corpus.restoreVocab(source.getVocab(), source.getTrainWords());
+    corpus.updateVocab();
+    final Map<String, Long> streamed = new HashMap<String, Long>();
+    corpus.rewind(1, 0);
+    while(true){
+      final String word = corpus.nextWord();
+      if(word == null && corpus.endOfCorpus()) break;
+      final Long count = streamed.get(word);
+      streamed.put(word, count == null ? 1L : count + 1);
+    }
+    assertEquals(5, corpus.getVocabSize());
+    for(int i = 0; i < corpus.getVocabSize(); i++){
+      final VocabWord vw = corpus.getVocab()[i];
+      final long before = vw.word == null ? counts[0] : "new".equals(vw.word) ? 0 : counts[Integer.parseInt(vw.word.substring(1))];
+      assertEquals(vw.word, before + streamed.get(vw.word), vw.cn);
+    }
+    assertEquals(4 * BILLION + streamed.get("w1"), corpus.getVocab()[0].cn);
+    // the words of the stream only
+    assertEquals(1101, corpus.getTrainWords());
+  }
+
+  static double[] frequencies(NegativeSampler sampler, int size, int samples){
+    FastRandom random = FastRandom.create(FastRandom.Type.SPLITMIX, 1);
+    double[] freq = new double[size];
+    for(int i = 0; i < samples; i++){
+      freq[sampler.sample(random.next())] += 1.0 / samples;
+    }
+    return freq;
+  }
+
+  @Test
+  public void testSamplerFrequencies() throws IOException {
+    final long[] counts = { 3 * BILLION, 8 * BILLION, 4 * BILLION, 3 * BILLION, 2500000000L, 2200000000L };
+    SyntheticCorpus corpus = sortedCorpus(config(), counts, 0);
+    final int size = corpus.getVocabSize();
+    final VocabWord[] vocab = corpus.getVocab();
+
+    double total = 0;
+    for(int i = 0; i < size; i++) total += Math.pow(vocab[i].cn, NegativeSampler.POWER);
+    // word 0 is replaced by the other words evenly
+    final double[] expected = new double[size];
+    for(int i = 1; i < size; i++){
+      expected[i] = (Math.pow(vocab[i].cn, NegativeSampler.POWER) + Math.pow(vocab[0].cn, NegativeSampler.POWER) / (size - 1)) / total;
+    }
+
+    final int samples = 1000000;
+    for(NegativeSampler sampler : new NegativeSampler[]{
+        new AliasSampler(vocab, size), new UnigramTableSampler(vocab, size, 10000000) }){
+      final double[] freq = frequencies(sampler, size, samples);
+      for(int i = 1; i < size; i++){
+        assertEquals(sampler.getClass().getSimpleName() + " word " + i, expected[i], freq[i], 6 * Math.sqrt(expected[i] / samples));
+      }
+    }
+  }
+
+  @Test
+  public void testAlphaDecayNearTheEnd() throws IOException {
+    final Config config = config();
+    SyntheticCorpus corpus = sortedCorpus(config, zipf(1000), 0);
+    final double totalWords = (double)config.getIter() * corpus.getTrainWords();
+    final long end = (long)totalWords;
+    assertTrue(end > 20 * (long)Integer.MAX_VALUE);
+
+    final float alpha = config.getAlpha();
+    float last = alpha;
+    for(long left = end / 10; left >= 0; left -= end / 1000){
+      final long words = end - left;
+      final float a = TrainModelThread.scheduleAlpha(config, alpha, words, totalWords, 0);
+      final double expected = Math.max(alpha * (1 - words / (totalWords + 1)), alpha * 0.0001);
+      assertEquals("words " + words, expected, a, expected * 1e-5);
+      assertTrue(a <= last);
+      last = a;
+    }
+    assertEquals(alpha * 0.0001F, TrainModelThread.scheduleAlpha(config, alpha, end, totalWords, 0), 0);
+  }
+}
@@ -0,0 +1,161 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MemoryPreflightTest {
+
+  static final int VOCAB_SIZE = 20000;
+
+  static Config config(){
+    Config config = LargeCountsTest.config();
+    config.setLayer1Size(100);
+    return config;
+  }
+
+  /**
+   * The sorted vocabulary of Zipf counts, where many rare words have the same counts
+   */
+  static Corpus corpus(Config config) throws IOException {
+    long[] counts = new long[VOCAB_SIZE];
+    for(int i = 0; i < VOCAB_SIZE; i++){
+      counts[i] = 1000000 / (i + 1);
+    }
+    LargeCountsTest.SyntheticCorpus corpus = new LargeCountsTest.SyntheticCorpus(config, counts, 0);
+    corpus.learnVocab();
+    corpus.sortVocab();
+    return corpus;
+  }
+
+  static long total(MemoryPreflight preflight, Corpus corpus, boolean offHeap){
+    return MemoryPreflight.total(preflight.footprint(corpus.getVocabSize(), preflight.codeLength()), offHeap);
+  }
+
+  @Test
+  public void testFittingWordsIsMonotone() throws IOException {
+    for(boolean hs : new boolean[]{ false, true }){
+      Config config = config();
+      config.setUseHierarchicalSoftmax(hs);
+      Corpus corpus = corpus(config);
+      MemoryPreflight preflight = new MemoryPreflight(corpus, config);
+      final long codeLength = preflight.codeLength();
+      assertEquals(hs, codeLength > 0);
+      final long full = total(preflight, corpus, true);
+
+      int last = 0;
+      for(long limit = 0; limit <= full + MemoryPreflight.MB; limit += full / 50){
+        final int fits = preflight.fittingWords(limit, true, codeLength);
+        assertTrue("limit " + limit, fits >= last);
+        assertTrue(fits <= corpus.getVocabSize());
+        last = fits;
+      }
+      assertEquals(corpus.getVocabSize(), last);
+    }
+  }
+
+  @Test
+  public void testRaisesMinCountToFit() throws IOException {
+    for(boolean hs : new boolean[]{ false, true }){
+      Config config = config();
+      config.setUseHierarchicalSoftmax(hs);
+      Corpus corpus = corpus(config);
+      MemoryPreflight preflight = new MemoryPreflight(corpus, config);
+      final long full = total(preflight, corpus, true);
+      final long budget = full / 2 / MemoryPreflight.MB;
+      config.setMemoryBudget(budget).setMemoryFit(true);
+
+      preflight.check();
+      assertTrue(config.getMinCount() > 1);
+      assertTrue(corpus.getVocabSize() < VOCAB_SIZE);
+      assertTrue(total(preflight, corpus, true) <= budget * MemoryPreflight.MB);
+      for(int i = 0; i < corpus.getVocabSize(); i++){
+        assertTrue(corpus.getVocab()[i].cn >= config.getMinCount());
+      }
+      // the words of the count below the min-count would not have fitted
+      config.setMinCount(config.getMinCount() - 1);
+      Corpus larger = corpus(config);
+      assertTrue(larger.getVocabSize() > corpus.getVocabSize());
+      assertTrue(total(new MemoryPreflight(larger, config), larger, true) > budget * MemoryPreflight.MB);
+    }
+  }
+
+  @Test
+  public void testRefusesWithoutFit() throws IOException {
+    Config config = config();
+    Corpus corpus = corpus(config);
+    MemoryPreflight preflight = new MemoryPreflight(corpus, config);
+    config.setMemoryBudget(total(preflight, corpus, true) / 2 / MemoryPreflight.MB);
+    try{
+      preflight.check();
+      fail();
+    }
+    catch(IllegalArgumentException expected){
+    }
+    assertEquals(1, config.getMinCount());
+    assertEquals(VOCAB_SIZE, corpus.getVocabSize());
+  }
+
+  @Test
+  public void testRefusesWhatCannotFit() throws IOException {
+    // the unigram table does not shrink with the vocabulary
+    Config config = config();
+    config.setNegativeSampler(NegativeSampler.Type.TABLE);
+    Corpus corpus = corpus(config);
+    config.setMemoryBudget(4L * UnigramTableSampler.TABLE_SIZE / MemoryPreflight.MB / 2).setMemoryFit(true);
+    try{
+      new MemoryPreflight(corpus, config).check();
+      fail();
+    }
+    catch(IllegalArgumentException expected){
+      assertTrue(expected.getMessage(), expected.getMessage().contains("without any words"));
+    }
+  }
+
+  @Test
+  public void testOffHeapAccounting() throws IOException {
+    Config config = config();
+    config.setWeightStorage(WeightMatrix.Storage.DIRECT);
+    Corpus corpus = corpus(config);
+    Map<String, Long> footprint = new MemoryPreflight(corpus, config).footprint(corpus.getVocabSize(), 0);
+    final long direct = footprint.get("weights (direct)");
+    // syn0 and syn1neg of floats
+    assertEquals(2 * 4L * VOCAB_SIZE * config.getLayer1Size(), direct);
+    // the max heap does not hold the direct buffers, and a budget does
+    assertEquals(MemoryPreflight.total(footprint, false) + direct, MemoryPreflight.total(footprint, true));
+
+    config.setWeightStorage(WeightMatrix.Storage.MAPPED);
+    footprint = new MemoryPreflight(corpus, config).footprint(corpus.getVocabSize(), 0);
+    // the OS pages the mapped files, so they are in neither total
+    assertTrue(footprint.get("weights (mapped)") > 0);
+    assertEquals(MemoryPreflight.total(footprint, false), MemoryPreflight.total(footprint, true));
+
+    config.setWeightStorage(WeightMatrix.Storage.HEAP);
+    footprint = new MemoryPreflight(corpus, config).footprint(corpus.getVocabSize(), 0);
+    // the heap arrays of doubles
+    assertEquals(2 * MemoryPreflight.matrixBytes(config, VOCAB_SIZE), (long)footprint.get("weights"));
+    assertEquals(MemoryPreflight.total(footprint, false), MemoryPreflight.total(footprint, true));
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MultiModelTrainerTest {
+
+  File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = TestCorpora.createTempDir("w2v-models");
+    TestCorpora.writeRandomCorpus(new File(dir, "corpus.txt"), 5000, 100);
+  }
+
+  @After
+  public void tearDown(){
+    TestCorpora.delete(dir);
+  }
+
+  TextFileConfig config(String output){
+    TextFileConfig config = new TextFileConfig();
+    config.setInputFile(new File(dir, "corpus.txt").getPath());
+    config.setOutputFile(new File(dir, output).getPath())
+      .setTimeBudget(1).setLayer1Size(10).setMinCount(1).setNumThreads(2);
+    return config;
+  }
+
+  static double meanAbs(WeightMatrix matrix){
+    double sum = 0;
+    for(int r = 0; r < matrix.getRows(); r++){
+      for(int c = 0; c < matrix.getColumns(); c++){
+        sum += Math.abs(matrix.get(r, c));
+      }
+    }
+    return sum / matrix.getRows() / matrix.getColumns();
+  }
+
+  @Test
+  public void testTimeBudgetOfCoModels() throws IOException {
+    MultiModelTrainer trainer = new MultiModelTrainer(config("lead.txt"), config("co.txt"));
+    trainer.trainModels(new TextFileCorpusFactory());
+    final Word2vec lead = trainer.getModels()[0], co = trainer.getModels()[1];
+
+    assertEquals(lead.timeStart, co.timeStart);
+    assertEquals(lead.getTrainingMillis(), co.getTrainingMillis());
+    // syn1neg starts from zero, so it is as large as the learning rate has been
+    final double leadWeights = meanAbs(lead.syn1neg), coWeights = meanAbs(co.syn1neg);
+    assertTrue(leadWeights > 0);
+    assertTrue(String.format("%f of the co-model and %f of the lead", coWeights, leadWeights), coWeights > leadWeights / 2);
+  }
+}
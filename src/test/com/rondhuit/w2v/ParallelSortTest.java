@@ -0,0 +1,90 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ParallelSortTest {
+
+  static VocabWord[] words(int size, long maxCount, Random random){
+    VocabWord[] words = new VocabWord[size];
+    for(int i = 0; i < size; i++){
+      words[i] = new VocabWord("w" + i);
+      words[i].setCn(maxCount - (long)(random.nextDouble() * 10));
+    }
+    return words;
+  }
+
+  /**
+   * Returns the order of a stable sort of the words in the descending order of the counts
+   */
+  static int[] stableOrder(final VocabWord[] words){
+    Integer[] boxed = new Integer[words.length];
+    for(int i = 0; i < boxed.length; i++){
+      boxed[i] = i;
+    }
+    Arrays.sort(boxed, new Comparator<Integer>(){
+      @Override
+      public int compare(Integer o1, Integer o2){
+        final long c1 = words[o1].cn, c2 = words[o2].cn;
+        return c2 < c1 ? -1 : c2 == c1 ? 0 : 1;
+      }
+    });
+    int[] order = new int[boxed.length];
+    for(int i = 0; i < order.length; i++){
+      order[i] = boxed[i];
+    }
+    return order;
+  }
+
+  @Test
+  public void testSortByCountIsStable(){
+    Random random = new Random(0);
+    // few distinct counts, so most of the words tie, on several runs which are merged
+    final VocabWord[] words = words(ParallelSort.MIN_RUN * 5 + 3, 100, random);
+    for(int threads = 1; threads <= 5; threads++){
+      assertArrayEquals("threads " + threads, stableOrder(words), ParallelSort.sortByCount(words, words.length, threads));
+    }
+  }
+
+  @Test
+  public void testSortByLargeCountIsStable(){
+    // the counts which are too large to be packed with the positions
+    final VocabWord[] words = words(1000, Long.MAX_VALUE, new Random(1));
+    assertArrayEquals(stableOrder(words), ParallelSort.sortByCount(words, words.length, 4));
+  }
+
+  @Test
+  public void testSort(){
+    Random random = new Random(2);
+    long[] a = new long[ParallelSort.MIN_RUN * 3 + 1];
+    for(int i = 0; i < a.length; i++){
+      a[i] = random.nextLong();
+    }
+    long[] expected = a.clone();
+    Arrays.sort(expected);
+    ParallelSort.sort(a, 3);
+    assertArrayEquals(expected, a);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParameterServerTest {
+
+  File dir;
+  String corpusFile;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = TestCorpora.createTempDir("w2v-ps");
+    corpusFile = TestCorpora.writeLines(new File(dir, "corpus.txt"), 100, "a b c d e f a b c a");
+  }
+
+  @After
+  public void tearDown(){
+    TestCorpora.delete(dir);
+  }
+
+  static int freePort() throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    try{
+      return socket.getLocalPort();
+    }
+    finally{
+      socket.close();
+    }
+  }
+
+  static ParameterClient connect(Config config, Word2vec vec) throws Exception {
+    for(int retry = 0; ; retry++){
+      try{
+        ParameterClient client = new ParameterClient(config);
+        client.receiveModel(vec, new TextFileCorpus(config));
+        return client;
+      }
+      catch(ConnectException e){
+        // the coordinator has not listened yet
+        if(retry == 100) throw e;
+        Thread.sleep(50);
+      }
+    }
+  }
+
+  static void add(WeightMatrix matrix, int row, double value){
+    for(int c = 0; c < matrix.columns; c++){
+      matrix.set(row, c, matrix.get(row, c) + value);
+    }
+  }
+
+  static void assertRows(WeightMatrix expected, WeightMatrix actual){
+    for(int r = 0; r < expected.rows; r++){
+      for(int c = 0; c < expected.columns; c++){
+        assertEquals("row " + r, expected.get(r, c), actual.get(r, c), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void testAveragingRoundTrip() throws Exception {
+    final TextFileConfig config = new TextFileConfig();
+    config.setInputFile(corpusFile);
+    config.setCoordinator("localhost", freePort()).setNumWorkers(2).setLayer1Size(8).setMinCount(1);
+
+    final TextFileCorpus corpus = new TextFileCorpus(config);
+    corpus.learnVocab();
+    corpus.sortVocab();
+    final Word2vec coordinator = new Word2vec(config);
+    coordinator.initNet(corpus);
+    final Word2vec initial = new Word2vec(config);
+    initial.createNet(corpus.getVocabSize());
+    for(int r = 0; r < corpus.getVocabSize(); r++){
+      for(int c = 0; c < config.getLayer1Size(); c++){
+        initial.syn0.set(r, c, (float)coordinator.syn0.get(r, c));
+        initial.syn1neg.set(r, c, (float)coordinator.syn1neg.get(r, c));
+      }
+    }
+
+    ExecutorService executor = Executors.newCachedThreadPool();
+    try{
+      Future<?> server = executor.submit(new Callable<Void>(){
+        public Void call() throws IOException {
+          new ParameterServer(coordinator, config, corpus).run();
+          return null;
+        }
+      });
+      final Word2vec worker1 = new Word2vec(config), worker2 = new Word2vec(config);
+      final ParameterClient client1 = connect(config, worker1);
+      final ParameterClient client2 = connect(config, worker2);
+      assertRows(initial.syn0, worker1.syn0);
+      assertRows(initial.syn1neg, worker2.syn1neg);
+
+      // the changes of the workers since the model was sent
+      add(worker1.syn0, 1, 1);
+      add(worker2.syn0, 1, 3);
+      add(worker2.syn1neg, 2, 2);
+      Future<?> exchange1 = executor.submit(new Callable<Void>(){
+        public Void call() throws IOException {
+          client1.exchange(true);
+          return null;
+        }
+      });
+      client2.exchange(true);
+      exchange1.get();
+      server.get();
+      client1.close();
+      client2.close();
+
+      add(initial.syn0, 1, 2);
+      add(initial.syn1neg, 2, 1);
+      for(Word2vec vec : new Word2vec[]{ coordinator, worker1, worker2 }){
+        assertRows(initial.syn0, vec.syn0);
+        assertRows(initial.syn1neg, vec.syn1neg);
+      }
+    }
+    finally{
+      executor.shutdownNow();
+      corpus.close();
+    }
+  }
+}
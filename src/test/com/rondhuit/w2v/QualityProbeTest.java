@@ -0,0 +1,91 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class QualityProbeTest {
+
+  /**
+   * Returns the given accuracies one probe after another
+   */
+  static class StubEvaluator extends AnalogyEvaluator {
+
+    final double[] accuracies;
+    int probes;
+
+    StubEvaluator(double... accuracies){
+      super(new ArrayList<String[]>());
+      this.accuracies = accuracies;
+    }
+
+    @Override
+    public double evaluate(String[] vocab, float[][] vectors, int threshold){
+      return accuracies[probes++];
+    }
+  }
+
+  static Word2vec model(Config config){
+    Word2vec vec = new Word2vec(config);
+    vec.syn0 = new DoubleArrayWeightMatrix(3, config.getLayer1Size(), VectorKernel.getInstance(VectorKernel.Type.SCALAR, 0));
+    vec.progress = new ProgressCounter(1);
+    vec.scheduler = new ChunkScheduler(1, 100, 1);
+    return vec;
+  }
+
+  /**
+   * Runs the probes and returns the number of the probes after which the training has been stopped,
+   * or 0 if it has not
+   */
+  static int runProbes(int patience, double... accuracies){
+    Config config = new TextFileConfig();
+    config.setProbePatience(patience).setLayer1Size(4);
+    Word2vec vec = model(config);
+    StubEvaluator evaluator = new StubEvaluator(accuracies);
+    QualityProbe probe = new QualityProbe(vec, config, new String[]{ "a", "b", "c" }, evaluator);
+    for(int i = 1; i <= accuracies.length; i++){
+      probe.run();
+      if(vec.scheduler.getDeadline() > 0){
+        // the threads get no more chunks
+        assertEquals(-1, vec.scheduler.nextChunk(0));
+        return i;
+      }
+      assertTrue(vec.scheduler.nextChunk(0) >= 0);
+    }
+    return 0;
+  }
+
+  @Test
+  public void testStopsAfterPatience(){
+    // the best is probe 2, and probes 3, 4 and 5 do not beat it
+    assertEquals(5, runProbes(3, 0.1, 0.2, 0.2, 0.15, 0.2, 0.5));
+    assertEquals(3, runProbes(1, 0.1, 0.2, 0.2, 0.5));
+  }
+
+  @Test
+  public void testImprovementResetsPatience(){
+    assertEquals(7, runProbes(3, 0.1, 0.1, 0.1, 0.3, 0.3, 0.3, 0.2, 0.5));
+    // the accuracy which keeps improving never stops the training
+    assertEquals(0, runProbes(2, 0.1, 0.2, 0.3, 0.4, 0.5, 0.6));
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedJobTest {
+
+  File dir;
+  TextFileConfig config;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = TestCorpora.createTempDir("w2v-job");
+    String corpusFile = TestCorpora.writeLines(new File(dir, "corpus.txt"), 100, "a b c d e f a b c a");
+    config = new TextFileConfig();
+    config.setInputFile(corpusFile);
+    config.setSharedDir(dir.getPath()).setUsePreTouch(true).setLayer1Size(8).setMinCount(1).setIter(3);
+  }
+
+  @After
+  public void tearDown(){
+    TestCorpora.delete(dir);
+  }
+
+  SharedJob create(Word2vec vec) throws IOException {
+    Corpus corpus = new TextFileCorpus(config);
+    corpus.learnVocab();
+    corpus.sortVocab();
+    return SharedJob.create(dir, vec, corpus, config);
+  }
+
+  @Test
+  public void testSchedulerStopsAtDeadline() throws IOException {
+    SharedJob job = create(new Word2vec(config));
+    SharedJob other = SharedJob.join(dir, new Word2vec(config), new TextFileCorpus(config), config);
+    try{
+      AbstractChunkScheduler scheduler = job.createScheduler();
+      assertTrue(scheduler.nextChunk(0) >= 0);
+      scheduler.setDeadline(System.currentTimeMillis() + 60000);
+      assertTrue(scheduler.nextChunk(0) >= 0);
+      scheduler.stop();
+      assertEquals(-1, scheduler.nextChunk(0));
+      assertEquals(false, scheduler.awaitNextIteration());
+
+      // the other process goes on with the chunks which are left
+      assertTrue(other.createScheduler().nextChunk(0) >= 0);
+    }
+    finally{
+      other.close();
+      job.close();
+    }
+  }
+
+  @Test
+  public void testJoinKeepsWeights() throws IOException {
+    Word2vec owner = new Word2vec(config);
+    SharedJob job = create(owner);
+    owner.syn0.set(1, 2, 0.5);
+    Word2vec joiner = new Word2vec(config);
+    SharedJob other = SharedJob.join(dir, joiner, new TextFileCorpus(config), config);
+    try{
+      assertEquals(owner.syn0.get(0, 0), joiner.syn0.get(0, 0), 0);
+      assertEquals(0.5, joiner.syn0.get(1, 2), 0);
+
+      // both processes train the same weights
+      joiner.syn0.set(1, 2, 0.25);
+      assertEquals(0.25, owner.syn0.get(1, 2), 0);
+    }
+    finally{
+      other.close();
+      job.close();
+    }
+  }
+}
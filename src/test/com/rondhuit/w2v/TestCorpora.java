@@ -0,0 +1,102 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Temporary directories and small corpora of the tests
+ */
+final class TestCorpora {
+
+  private TestCorpora(){
+  }
+
+  static File createTempDir(String prefix) throws IOException {
+    File dir = File.createTempFile(prefix, "");
+    if(!dir.delete() || !dir.mkdir()) throw new IOException("cannot create " + dir);
+    return dir;
+  }
+
+  /**
+   * Deletes the directory and everything in it
+   */
+  static void delete(File dir){
+    File[] files = dir.listFiles();
+    if(files != null){
+      for(File file : files){
+        delete(file);
+      }
+    }
+    dir.delete();
+  }
+
+  /**
+   * Writes the line the given number of times
+   * @return the path of the file
+   */
+  static String writeLines(File file, int lines, String line) throws IOException {
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), Word2vec.ENCODING);
+    try{
+      for(int i = 0; i < lines; i++){
+        writer.write(line);
+        writer.write("\n");
+      }
+    }
+    finally{
+      writer.close();
+    }
+    return file.getPath();
+  }
+
+  /**
+   * Writes lines of 10 words, which are picked at random from the words w0 to w(vocabSize - 1)
+   * @return the path of the file
+   */
+  static String writeRandomCorpus(File file, int lines, int vocabSize) throws IOException {
+    return writeRandomCorpus(file, lines, vocabSize, null, 0);
+  }
+
+  /**
+   * Writes lines of 10 random words like {@link #writeRandomCorpus(File, int, int)}, and adds the extra word
+   * to every n-th line
+   * @return the path of the file
+   */
+  static String writeRandomCorpus(File file, int lines, int vocabSize, String extraWord, int n) throws IOException {
+    Random random = new Random(0);
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), Word2vec.ENCODING);
+    try{
+      for(int i = 0; i < lines; i++){
+        for(int j = 0; j < 10; j++){
+          writer.write("w" + random.nextInt(vocabSize) + " ");
+        }
+        if(extraWord != null && i % n == 0) writer.write(extraWord);
+        writer.write("\n");
+      }
+    }
+    finally{
+      writer.close();
+    }
+    return file.getPath();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThreadTunerTest {
+
+  File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = TestCorpora.createTempDir("w2v-tuner");
+  }
+
+  @After
+  public void tearDown(){
+    TestCorpora.delete(dir);
+  }
+
+  static double[] rows(WeightMatrix matrix){
+    final int columns = matrix.getColumns();
+    final double[] values = new double[matrix.getRows() * columns], row = new double[columns];
+    for(int r = 0; r < matrix.getRows(); r++){
+      matrix.copyRow(r, row);
+      System.arraycopy(row, 0, values, r * columns, columns);
+    }
+    return values;
+  }
+
+  @Test
+  public void testTuningKeepsRestoredState() throws IOException {
+    final TextFileConfig config = new TextFileConfig();
+    config.setInputFile(TestCorpora.writeRandomCorpus(new File(dir, "corpus.txt"), 2000, 50));
+    config.setOutputFile(new File(dir, "vectors.txt").getPath())
+      .setCheckpointFile(new File(dir, "checkpoint").getPath())
+      .setOptimizer(WeightMatrix.Optimizer.ADAGRAD)
+      .setLayer1Size(10).setMinCount(1).setNumThreads(2).setIter(1);
+    new Word2vec(config).trainModel(new TextFileCorpusFactory());
+
+    // the state of a resume, before the training threads start
+    config.setAutoTune(1);
+    final Word2vec vec = new Word2vec(config);
+    final Corpus corpus = new TextFileCorpus(config);
+    vec.startingAlpha = Checkpoint.read(new File(config.getCheckpointFile()), vec, corpus, config).getStartingAlpha();
+    vec.sampler = NegativeSampler.create(config, corpus.getVocab(), corpus.getVocabSize());
+    final WeightMatrix syn0 = vec.syn0, syn1neg = vec.syn1neg;
+    final double[] syn0Values = rows(syn0), syn1negValues = rows(syn1neg);
+    final float[][] sums = vec.adaGradSums;
+    final float[] syn0Sums = sums[0].clone(), syn1negSums = sums[2].clone();
+
+    new ThreadTuner(vec, config, new TextFileCorpusFactory(), corpus).tune();
+    assertTrue(config.getNumThreads() >= 1);
+
+    // the bursts trained copies, and the restored weights and sums are back as they were
+    assertSame(syn0, vec.syn0);
+    assertSame(syn1neg, vec.syn1neg);
+    assertSame(sums, vec.adaGradSums);
+    final double[] syn0After = rows(syn0), syn1negAfter = rows(syn1neg);
+    for(int i = 0; i < syn0Values.length; i++){
+      assertEquals(syn0Values[i], syn0After[i], 0);
+      assertEquals(syn1negValues[i], syn1negAfter[i], 0);
+    }
+    for(int i = 0; i < syn0Sums.length; i++){
+      assertEquals(syn0Sums[i], sums[0][i], 0);
+      assertEquals(syn1negSums[i], sums[2][i], 0);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TrainModelThreadTest {
+
+  @Test
+  public void testWindowShrinkIsInWindow(){
+    for(FastRandom.Type type : FastRandom.Type.values()){
+      for(int window = 1; window <= 10; window++){
+        final FastRandom random = FastRandom.create(type, 1);
+        final int[] counts = new int[window];
+        for(int i = 0; i < 10000 * window; i++){
+          final int b = TrainModelThread.windowShrink(random.next(), window);
+          assertTrue(type + " " + b, b >= 0 && b < window);
+          counts[b]++;
+        }
+        // every shrink is about as likely, so both sides of the window are as wide
+        for(int b = 0; b < window; b++){
+          assertTrue(type + " window " + window + " shrink " + b, counts[b] > 9000 && counts[b] < 11000);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class VectorKernelTest {
+
+  @Test
+  public void testAutoPicksOneKernelPerSize(){
+    final VectorKernel.Type type = VectorKernel.calibrate(37);
+    assertTrue(type == VectorKernel.Type.SCALAR || type == VectorKernel.Type.UNROLLED);
+    assertSame(type, VectorKernel.calibrate(37));
+    final Class<?> expected = type == VectorKernel.Type.UNROLLED ? UnrolledVectorKernel.class : ScalarVectorKernel.class;
+    assertEquals(expected, VectorKernel.getInstance(VectorKernel.Type.AUTO, 37).getClass());
+  }
+
+  @Test
+  public void testKernelsAgree(){
+    final Random random = new Random(0);
+    final VectorKernel scalar = VectorKernel.getInstance(VectorKernel.Type.SCALAR, 0);
+    final VectorKernel unrolled = VectorKernel.getInstance(VectorKernel.Type.UNROLLED, 0);
+    for(int n = 1; n <= 11; n++){
+      final double[] x = new double[n], w = new double[n + 3];
+      final float[] fw = new float[n + 3];
+      for(int i = 0; i < n; i++) x[i] = random.nextDouble() - 0.5;
+      for(int i = 0; i < w.length; i++) w[i] = fw[i] = random.nextFloat() - 0.5F;
+      assertEquals(scalar.dot(x, w, 3, n), unrolled.dot(x, w, 3, n), 1e-12);
+      assertEquals(scalar.dot(x, fw, 3, n), unrolled.dot(x, fw, 3, n), 1e-12);
+    }
+  }
+}
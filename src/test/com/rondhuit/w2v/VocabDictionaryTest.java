@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2014 RONDHUIT Co.,Ltd.
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ *
+ */
+
+package com.rondhuit.w2v;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.UnsupportedEncodingException;
+
+import org.junit.Test;
+
+public class VocabDictionaryTest {
+
+  static final String[] WORDS = {
+    null, "a", "ab", "b", "café", "日本語", "😀", "x😀y", "éé"
+  };
+
+  static VocabDictionary create(String... words){
+    VocabWord[] vocab = new VocabWord[words.length];
+    for(int i = 0; i < words.length; i++){
+      vocab[i] = new VocabWord(words[i]);
+    }
+    return new VocabDictionary(vocab, words.length);
+  }
+
+  static int getChars(VocabDictionary dictionary, String word){
+    // the word is in the middle of other chars
+    char[] chars = ("é" + word + "z").toCharArray();
+    return dictionary.get(chars, 1, word.length());
+  }
+
+  static int getBytes(VocabDictionary dictionary, String word) throws UnsupportedEncodingException {
+    byte[] utf8 = ("é" + word + "z").getBytes(Word2vec.ENCODING);
+    return dictionary.get(utf8, 2, utf8.length - 3);
+  }
+
+  @Test
+  public void testGet() throws UnsupportedEncodingException {
+    VocabDictionary dictionary = create(WORDS);
+    assertEquals(WORDS.length, dictionary.size());
+    assertEquals(0, dictionary.get((CharSequence)null));
+    for(int i = 1; i < WORDS.length; i++){
+      assertEquals(WORDS[i], i, dictionary.get(WORDS[i]));
+      assertEquals(WORDS[i], i, dictionary.get(new StringBuilder(WORDS[i])));
+      assertEquals(WORDS[i], i, getChars(dictionary, WORDS[i]));
+      assertEquals(WORDS[i], i, getBytes(dictionary, WORDS[i]));
+    }
+  }
+
+  @Test
+  public void testMissingWords() throws UnsupportedEncodingException {
+    VocabDictionary dictionary = create("a", "café", "😀");
+    for(String word : new String[]{ "", "c", "aa", "cafe", "cafés", "😁", "é" }){
+      assertEquals(word, -1, dictionary.get(word));
+      assertEquals(word, -1, getChars(dictionary, word));
+      assertEquals(word, -1, getBytes(dictionary, word));
+    }
+    // no end of sentence in the vocabulary
+    assertEquals(-1, dictionary.get((CharSequence)null));
+  }
+
+  @Test
+  public void testSurrogates(){
+    // a lone surrogate is encoded by itself, and a pair as one code point
+    VocabDictionary dictionary = create("\uD83D", "\uDE00", "😀", "\uDE00\uD83D");
+    assertEquals(0, dictionary.get("\uD83D"));
+    assertEquals(1, dictionary.get("\uDE00"));
+    assertEquals(2, dictionary.get("😀"));
+    assertEquals(3, dictionary.get("\uDE00\uD83D"));
+    assertEquals(0, getChars(dictionary, "\uD83D"));
+    assertEquals(1, getChars(dictionary, "\uDE00"));
+    assertEquals(2, getChars(dictionary, "😀"));
+    assertEquals(3, getChars(dictionary, "\uDE00\uD83D"));
+    // the high surrogate at the end of the slice is not paired with the char after it
+    assertEquals(0, dictionary.get("😀".toCharArray(), 0, 1));
+  }
+
+  @Test
+  public void testManyWords() throws UnsupportedEncodingException {
+    String[] words = new String[5000];
+    for(int i = 0; i < words.length; i++){
+      words[i] = "語" + i;
+    }
+    VocabDictionary dictionary = create(words);
+    for(int i = 0; i < words.length; i++){
+      assertEquals(i, dictionary.get(words[i]));
+      assertEquals(i, getChars(dictionary, words[i]));
+      assertEquals(i, getBytes(dictionary, words[i]));
+    }
+    assertEquals(-1, dictionary.get("語" + words.length));
+  }
+
+  @Test
+  public void testFirstOfSameWordsWins(){
+    VocabDictionary dictionary = create("a", "b", "a");
+    assertEquals(3, dictionary.size());
+    assertEquals(0, dictionary.get("a"));
+    assertEquals(0, getChars(dictionary, "a"));
+  }
+}